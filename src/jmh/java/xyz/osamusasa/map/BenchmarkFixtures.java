@@ -0,0 +1,100 @@
+package xyz.osamusasa.map;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * ベンチマークで使うデータを作成する
+ */
+final class BenchmarkFixtures {
+    /**
+     * タイル１マスの大きさ
+     */
+    static final int TILE_SIZE = 32;
+
+    /**
+     * 透過色
+     */
+    static final Color TRANSPARENT_COLOR = new Color(255, 174, 200);
+
+    /**
+     * インスタンス化しない
+     */
+    private BenchmarkFixtures() {}
+
+    /**
+     * ランダムな色のタイルを並べた画像を作成する
+     *
+     * 各タイルの左上の四分の一は透過色で塗る
+     *
+     * @param cols 横方向のタイルの数
+     * @param rows 縦方向のタイルの数
+     * @param seed 乱数の種
+     * @return 作成した画像
+     */
+    static BufferedImage createSheet(int cols, int rows, long seed) {
+        Random random = new Random(seed);
+        BufferedImage sheet = new BufferedImage(cols * TILE_SIZE, rows * TILE_SIZE, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics g = sheet.getGraphics();
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                g.setColor(new Color(random.nextInt(0xFFFFFF)));
+                g.fillRect(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+                g.setColor(TRANSPARENT_COLOR);
+                g.fillRect(x * TILE_SIZE, y * TILE_SIZE, TILE_SIZE / 2, TILE_SIZE / 2);
+            }
+        }
+        g.dispose();
+        return sheet;
+    }
+
+    /**
+     * 画像を一時ファイルに書き出して {@code BitmapData} として読み込む
+     *
+     * @param sheet 画像
+     * @return 読み込んだ {@code BitmapData} オブジェクト
+     */
+    static BitmapData createBitmapData(BufferedImage sheet) {
+        try {
+            File file = File.createTempFile("tiledMap-bench", ".bmp");
+            file.deleteOnExit();
+            ImageIO.write(sheet, "bmp", file);
+            return new BitmapData(file.getPath(), TILE_SIZE, TILE_SIZE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 一番下のレイヤーを埋め, 上のレイヤーにまばらにタイルを置いたマップを作成する
+     *
+     * @param bitmapData タイルの画像
+     * @param size 行数と列数
+     * @param layers レイヤーの数
+     * @param seed 乱数の種
+     * @return 作成したマップ
+     */
+    static TableMap createMap(BitmapData bitmapData, int size, int layers, long seed) {
+        Random random = new Random(seed);
+        TableMap map = new TableMap(layers, size, size, TILE_SIZE, TILE_SIZE);
+        map.fill(bitmapData.getTile(0, 0), 0);
+        for (int i = 1; i < layers; i++) {
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    if (random.nextInt(8) == 0) {
+                        int tx = random.nextInt(bitmapData.getColumns());
+                        int ty = random.nextInt(bitmapData.getRows());
+                        map.addImage(bitmapData.getTile(tx, ty, TRANSPARENT_COLOR), i, x, y);
+                    }
+                }
+            }
+        }
+        map.posX = 0;
+        map.posY = 0;
+        return map;
+    }
+}
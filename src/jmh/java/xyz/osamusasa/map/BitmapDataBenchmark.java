@@ -0,0 +1,91 @@
+package xyz.osamusasa.map;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code BitmapData} のタイルの取得と透過色の置き換えのベンチマーク
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitmapDataBenchmark {
+    /**
+     * ソース画像の一辺のタイルの数
+     */
+    @Param({"8", "64"})
+    public int tiles;
+
+    /**
+     * ソース画像
+     */
+    private BufferedImage sheet;
+    /**
+     * 透過色を置き換える画像
+     */
+    private BufferedImage copy;
+    /**
+     * タイルを取得する {@code BitmapData} オブジェクト
+     */
+    private BitmapData bitmapData;
+    /**
+     * 次に取得するタイルの番号
+     */
+    private int next;
+
+    /**
+     * ソース画像を準備する
+     */
+    @Setup
+    public void setUp() {
+        sheet = BenchmarkFixtures.createSheet(tiles, tiles, 1);
+        bitmapData = BenchmarkFixtures.createBitmapData(sheet);
+    }
+
+    /**
+     * 透過色を置き換える画像を毎回作り直す
+     */
+    @Setup(Level.Invocation)
+    public void copySheet() {
+        copy = TableMap.deepCopy(toArgb(sheet));
+    }
+
+    /**
+     * タイルを順番に取得する
+     *
+     * @return 取得したタイル
+     */
+    @Benchmark
+    public BufferedImage getTile() {
+        int index = next++ % (tiles * tiles);
+        return bitmapData.getTile(index % tiles, index / tiles);
+    }
+
+    /**
+     * ソース画像全体の透過色を置き換える
+     *
+     * @return 置き換えた画像
+     */
+    @Benchmark
+    public BufferedImage changeTransparent() {
+        BitmapData.changeTransparent(copy, BenchmarkFixtures.TRANSPARENT_COLOR);
+        return copy;
+    }
+
+    /**
+     * 画像を {@code TYPE_INT_ARGB} に変換する
+     *
+     * @param img 画像
+     * @return 変換した画像
+     */
+    private static BufferedImage toArgb(BufferedImage img) {
+        BufferedImage bimg = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        bimg.getGraphics().drawImage(img, 0, 0, null);
+        return bimg;
+    }
+}
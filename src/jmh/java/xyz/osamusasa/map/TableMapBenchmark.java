@@ -0,0 +1,141 @@
+package xyz.osamusasa.map;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code TableMap} の描画と操作のベンチマーク
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TableMapBenchmark {
+    /**
+     * 描画先の画像の幅
+     */
+    private static final int VIEW_WIDTH = 1280;
+    /**
+     * 描画先の画像の高さ
+     */
+    private static final int VIEW_HEIGHT = 720;
+
+    /**
+     * 行数と列数
+     */
+    @Param({"64", "512"})
+    public int size;
+
+    /**
+     * レイヤーの数
+     */
+    @Param({"1", "4"})
+    public int layers;
+
+    /**
+     * 拡大倍率
+     */
+    @Param({"0.25", "1.0"})
+    public double magnification;
+
+    /**
+     * マップ
+     */
+    private TableMap map;
+    /**
+     * 塗りつぶしに使う画像
+     */
+    private Image fillImage;
+    /**
+     * 描画先の画像
+     */
+    private BufferedImage target;
+    /**
+     * 当たり判定に使う点のX座標
+     */
+    private int[] pointX;
+    /**
+     * 当たり判定に使う点のY座標
+     */
+    private int[] pointY;
+
+    /**
+     * マップと描画先を準備する
+     */
+    @Setup
+    public void setUp() {
+        BitmapData bitmapData = BenchmarkFixtures.createBitmapData(BenchmarkFixtures.createSheet(8, 8, 1));
+        map = BenchmarkFixtures.createMap(bitmapData, size, layers, 2);
+        map.setMagnification(magnification);
+        fillImage = bitmapData.getTile(1, 1);
+        target = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+        Random random = new Random(3);
+        pointX = new int[1024];
+        pointY = new int[1024];
+        for (int i = 0; i < pointX.length; i++) {
+            pointX[i] = random.nextInt(Math.min(VIEW_WIDTH, map.getDrawableWidth()));
+            pointY[i] = random.nextInt(Math.min(VIEW_HEIGHT, map.getDrawableHeight()));
+        }
+    }
+
+    /**
+     * 画面の大きさの画像にマップを描画する
+     *
+     * 実際の画面と同じく描画範囲を画面の大きさに制限し, 範囲外のタイルを省く処理も測る
+     *
+     * @return 描画先の画像
+     */
+    @Benchmark
+    public BufferedImage draw() {
+        Graphics g = target.getGraphics();
+        g.setClip(0, 0, VIEW_WIDTH, VIEW_HEIGHT);
+        map.draw(g);
+        g.dispose();
+        return target;
+    }
+
+    /**
+     * 画面の大きさの範囲を {@code TiledMapRenderer} で描画する
+     *
+     * @return 描画した画像
+     */
+    @Benchmark
+    public BufferedImage renderHeadless() {
+        Rectangle region = new Rectangle(
+                0,
+                0,
+                (int) Math.min(map.getWidth(), VIEW_WIDTH / magnification),
+                (int) Math.min(map.getHeight(), VIEW_HEIGHT / magnification)
+        );
+        return TiledMapRenderer.render(map, region, magnification);
+    }
+
+    /**
+     * 一番下のレイヤーを埋める
+     */
+    @Benchmark
+    public void fill() {
+        map.fill(fillImage, 0);
+    }
+
+    /**
+     * 画面上の点に対応するタイルを取得する
+     *
+     * @param bh 結果を捨てる {@code Blackhole}
+     */
+    @Benchmark
+    @OperationsPerInvocation(1024)
+    public void getDisplayedTile(Blackhole bh) {
+        for (int i = 0; i < pointX.length; i++) {
+            bh.consume(map.getDisplayedTile(pointX[i], pointY[i]));
+        }
+    }
+}
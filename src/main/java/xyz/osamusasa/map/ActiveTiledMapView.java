@@ -0,0 +1,339 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.awt.event.*;
+import java.awt.image.BufferStrategy;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 専用のスレッドで能動的に描画する {@code TiledMap} のビュー
+ *
+ * {@code BufferStrategy} によるページフリッピングで描画し,
+ * 一定間隔の更新と描画を繰り返す.
+ * 入力イベントはキューに溜めておき, １フレームに一度描画スレッドでまとめて処理する.
+ * マップは描画スレッドからだけ操作される.
+ */
+public class ActiveTiledMapView extends Canvas implements Runnable {
+    /**
+     * １秒あたりのナノ秒
+     */
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 更新回数の既定値
+     */
+    public static final int DEFAULT_UPDATE_RATE = 60;
+
+    /**
+     * １フレームで遅れを取り戻すために続けて更新する最大の回数
+     *
+     * GCや一時停止で長く止まったあとに, 更新だけを繰り返して描画できなくなるのを防ぐ.
+     * 超えた分の遅れは捨てる
+     */
+    private static final int MAX_CATCH_UP_UPDATES = 5;
+
+    /**
+     * マップ
+     */
+    private final TiledMap map;
+
+    /**
+     * マップのマウスリスナー
+     */
+    private final MouseListener mouseListener;
+    /**
+     * マップのマウスモーションリスナー
+     */
+    private final MouseMotionListener mouseMotionListener;
+    /**
+     * マップのマウスホイールリスナー
+     */
+    private final MouseWheelListener mouseWheelListener;
+    /**
+     * マップのキーリスナー
+     */
+    private final KeyListener keyListener;
+
+    /**
+     * 処理待ちの入力イベント
+     */
+    private final Queue<AWTEvent> events;
+
+    /**
+     * １秒あたりの更新回数
+     */
+    private final int updateRate;
+
+    /**
+     * １秒あたりの最大の描画回数
+     */
+    private volatile int maxFrameRate;
+
+    /**
+     * 描画スレッド
+     */
+    private Thread renderThread;
+
+    /**
+     * 描画スレッドを動かしているか
+     */
+    private volatile boolean isRunning;
+
+    /**
+     * コンストラクタ
+     *
+     * @param map 描画するマップオブジェクト
+     */
+    public ActiveTiledMapView(TiledMap map) {
+        this(map, DEFAULT_UPDATE_RATE);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param map 描画するマップオブジェクト
+     * @param updateRate １秒あたりの更新回数, 最大の描画回数の初期値にもなる
+     * @throws IllegalArgumentException {@code updateRate} が０以下のとき
+     */
+    public ActiveTiledMapView(TiledMap map, int updateRate) {
+        if (updateRate <= 0) {
+            throw new IllegalArgumentException("updateRate: " + updateRate);
+        }
+        this.map = map;
+        this.mouseListener = map.getMouseListener();
+        this.mouseMotionListener = map.getMouseMotionListener();
+        this.mouseWheelListener = map.getMouseWheelListener();
+        this.keyListener = map.getKeyListener();
+        this.events = new ConcurrentLinkedQueue<>();
+        this.updateRate = updateRate;
+        this.maxFrameRate = updateRate;
+
+        setIgnoreRepaint(true);
+        setFocusable(true);
+        enableEvents(AWTEvent.MOUSE_EVENT_MASK
+                | AWTEvent.MOUSE_MOTION_EVENT_MASK
+                | AWTEvent.MOUSE_WHEEL_EVENT_MASK
+                | AWTEvent.KEY_EVENT_MASK);
+    }
+
+    /**
+     * １秒あたりの最大の描画回数をセット
+     *
+     * @param fps １秒あたりの最大の描画回数, １以上
+     * @throws IllegalArgumentException {@code fps} が０以下のとき
+     */
+    public void setMaxFrameRate(int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("fps: " + fps);
+        }
+        this.maxFrameRate = fps;
+    }
+
+    /**
+     * １秒あたりの最大の描画回数を取得
+     *
+     * @return １秒あたりの最大の描画回数
+     */
+    public int getMaxFrameRate() {
+        return maxFrameRate;
+    }
+
+    /**
+     * 画面に表示されるときに呼ばれる
+     *
+     * バッファを作成し描画スレッドを開始する
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        createBufferStrategy(2);
+        isRunning = true;
+        renderThread = new Thread(this, "TiledMap-render");
+        renderThread.setDaemon(true);
+        renderThread.start();
+        requestFocus();
+    }
+
+    /**
+     * 画面から取り除かれるときに呼ばれる
+     *
+     * 描画スレッドを停止する
+     */
+    @Override
+    public void removeNotify() {
+        stop();
+        super.removeNotify();
+    }
+
+    /**
+     * 描画スレッドを停止し, 終了するまで待つ
+     */
+    public void stop() {
+        isRunning = false;
+        Thread thread = renderThread;
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        renderThread = null;
+    }
+
+    /**
+     * 描画スレッドの処理
+     *
+     * 一定間隔でマップを更新し, 更新のたびではなくフレームごとに描画する.
+     * １フレームで続けて更新するのは {@link #MAX_CATCH_UP_UPDATES} 回までにする
+     */
+    @Override
+    public void run() {
+        long step = NANOS_PER_SECOND / updateRate;
+        long prev = System.nanoTime();
+        long lag = 0;
+
+        while (isRunning) {
+            long now = System.nanoTime();
+            lag = Math.min(lag + now - prev, MAX_CATCH_UP_UPDATES * step);
+            prev = now;
+
+            processEvents();
+            while (lag >= step) {
+                map.update();
+                lag -= step;
+            }
+            render();
+            sleepUntilNextFrame(now);
+        }
+    }
+
+    /**
+     * 入力イベントを受け取ったときに呼ばれる
+     *
+     * イベントはキューに溜めて描画スレッドで処理する
+     *
+     * @param e イベント
+     */
+    @Override
+    protected void processEvent(AWTEvent e) {
+        if (e.getID() == MouseEvent.MOUSE_PRESSED) {
+            requestFocus();
+        }
+        events.add(e);
+        super.processEvent(e);
+    }
+
+    /**
+     * 溜まっている入力イベントをマップに渡す
+     */
+    private void processEvents() {
+        AWTEvent e;
+        while ((e = events.poll()) != null) {
+            dispatch(e);
+        }
+    }
+
+    /**
+     * 入力イベントをマップのリスナーに渡す
+     *
+     * @param e イベント
+     */
+    private void dispatch(AWTEvent e) {
+        if (e instanceof MouseWheelEvent) {
+            MouseWheelEvent we = (MouseWheelEvent) e;
+            if (map.contains(we.getX(), we.getY())) {
+                mouseWheelListener.mouseWheelMoved(we);
+            }
+        } else if (e instanceof MouseEvent) {
+            MouseEvent me = (MouseEvent) e;
+            boolean isInside = map.contains(me.getX(), me.getY());
+            switch (me.getID()) {
+                case MouseEvent.MOUSE_CLICKED:
+                    if (isInside) mouseListener.mouseClicked(me);
+                    break;
+                case MouseEvent.MOUSE_PRESSED:
+                    if (isInside) mouseListener.mousePressed(me);
+                    break;
+                case MouseEvent.MOUSE_RELEASED:
+                    if (isInside) mouseListener.mouseReleased(me);
+                    break;
+                case MouseEvent.MOUSE_ENTERED:
+                    if (isInside) mouseListener.mouseEntered(me);
+                    break;
+                case MouseEvent.MOUSE_EXITED:
+                    if (isInside) mouseListener.mouseExited(me);
+                    break;
+                case MouseEvent.MOUSE_DRAGGED:
+                    mouseMotionListener.mouseDragged(me);
+                    break;
+                case MouseEvent.MOUSE_MOVED:
+                    mouseMotionListener.mouseMoved(me);
+                    break;
+                default:
+                    break;
+            }
+        } else if (e instanceof KeyEvent) {
+            KeyEvent ke = (KeyEvent) e;
+            switch (ke.getID()) {
+                case KeyEvent.KEY_TYPED:
+                    keyListener.keyTyped(ke);
+                    break;
+                case KeyEvent.KEY_PRESSED:
+                    keyListener.keyPressed(ke);
+                    break;
+                case KeyEvent.KEY_RELEASED:
+                    keyListener.keyReleased(ke);
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * バッファに描画して表示する
+     */
+    private void render() {
+        BufferStrategy bs = getBufferStrategy();
+        if (bs == null) {
+            return;
+        }
+        do {
+            do {
+                Graphics g = bs.getDrawGraphics();
+                try {
+                    if (getBackground() != null) {
+                        g.setColor(getBackground());
+                        g.fillRect(0, 0, getWidth(), getHeight());
+                    }
+                    g.setColor(getForeground());
+                    map.drawFrame(g);
+                } finally {
+                    g.dispose();
+                }
+            } while (bs.contentsRestored());
+            bs.show();
+        } while (bs.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    /**
+     * 最大の描画回数を超えないように次のフレームまで待つ
+     *
+     * @param frameStart このフレームを開始した時刻
+     */
+    private void sleepUntilNextFrame(long frameStart) {
+        long remaining = frameStart + NANOS_PER_SECOND / maxFrameRate - System.nanoTime();
+        if (remaining > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(remaining);
+            } catch (InterruptedException e) {
+                isRunning = false;
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
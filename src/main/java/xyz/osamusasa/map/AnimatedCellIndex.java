@@ -0,0 +1,271 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * {@link AnimatedTile} を置いたタイルの索引
+ *
+ * アニメーションするタイルごとに, それを置いたタイルを囲む範囲とレイヤーごとの数だけを記録する.
+ * コマが切り替わったときはタイルごとに範囲を１つだけ通知するので, 置いたタイルの数によらない時間で終わる.
+ * 取り除いたタイルで範囲は縮めないので, 通知する範囲は置いたタイルより広いことがある.
+ */
+final class AnimatedCellIndex {
+    /**
+     * 変更されたタイルの範囲を受け取る処理
+     */
+    interface ChangeSink {
+        /**
+         * タイルの範囲が変わったときに呼ばれる
+         *
+         * @param fromLayer 範囲の一番下のレイヤー
+         * @param toLayer 範囲の一番上のレイヤー
+         * @param x 範囲の左端の列
+         * @param y 範囲の上端の行
+         * @param width 範囲の列数
+         * @param height 範囲の行数
+         */
+        void changed(int fromLayer, int toLayer, int x, int y, int width, int height);
+    }
+
+    /**
+     * レイヤーの数
+     */
+    private final int layer;
+    /**
+     * 列数
+     */
+    private final int col;
+    /**
+     * 行数
+     */
+    private final int row;
+
+    /**
+     * アニメーションするタイルから, それを置いたタイルの範囲への対応
+     */
+    private final Map<AnimatedTile, Cells> cells;
+    /**
+     * レイヤー全体を埋めたアニメーションするタイル, 埋めていないレイヤーは {@code null}
+     */
+    private final AnimatedTile[] layers;
+    /**
+     * レイヤー全体を埋めたタイルの前回のコマの番号
+     */
+    private final int[] layerFrames;
+
+    /**
+     * コンストラクタ
+     *
+     * @param layer レイヤーの数
+     * @param row 行数
+     * @param col 列数
+     */
+    AnimatedCellIndex(int layer, int row, int col) {
+        this.layer = layer;
+        this.col = col;
+        this.row = row;
+        this.cells = new IdentityHashMap<>();
+        this.layers = new AnimatedTile[layer];
+        this.layerFrames = new int[layer];
+    }
+
+    /**
+     * アニメーションするタイルを１つも記録していないかを判定
+     *
+     * @return 記録していなければ {@code true}
+     */
+    boolean isEmpty() {
+        if (!cells.isEmpty()) {
+            return false;
+        }
+        for (AnimatedTile tile: layers) {
+            if (tile != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * １つのタイルの画像が変わったことを記録する
+     *
+     * @param prev 前の画像
+     * @param img 新しい画像
+     * @param layer レイヤー
+     * @param x x座標
+     * @param y y座標
+     */
+    void set(Image prev, Image img, int layer, int x, int y) {
+        if (prev instanceof AnimatedTile) {
+            Cells c = cells.get(prev);
+            if (c != null && c.remove(layer)) {
+                cells.remove(prev);
+            }
+        }
+        if (img instanceof AnimatedTile) {
+            Cells c = cells.get(img);
+            if (c == null) {
+                c = new Cells(this.layer);
+                cells.put((AnimatedTile) img, c);
+            }
+            c.add(layer, x, y);
+        }
+    }
+
+    /**
+     * レイヤー全体を１つの画像で埋めたことを記録する
+     *
+     * @param layer レイヤー
+     * @param img 埋めた画像
+     */
+    void fill(int layer, Image img) {
+        Iterator<Cells> it = cells.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().clear(layer)) {
+                it.remove();
+            }
+        }
+        layers[layer] = img instanceof AnimatedTile ? (AnimatedTile) img : null;
+        layerFrames[layer] = -1;
+    }
+
+    /**
+     * 指定された時刻にコマが切り替わったタイルの範囲を通知する
+     *
+     * @param timeMillis 時刻 (ミリ秒)
+     * @param sink 変更された範囲を受け取る処理
+     */
+    void advance(long timeMillis, ChangeSink sink) {
+        for (Map.Entry<AnimatedTile, Cells> e: cells.entrySet()) {
+            Cells c = e.getValue();
+            int frame = e.getKey().getFrameIndex(timeMillis);
+            if (frame != c.frame) {
+                c.frame = frame;
+                sink.changed(c.fromLayer(), c.toLayer(), c.left, c.top, c.right - c.left, c.bottom - c.top);
+            }
+        }
+        for (int i = 0; i < layers.length; i++) {
+            if (layers[i] != null) {
+                int frame = layers[i].getFrameIndex(timeMillis);
+                if (frame != layerFrames[i]) {
+                    layerFrames[i] = frame;
+                    sink.changed(i, i, 0, 0, col, row);
+                }
+            }
+        }
+    }
+
+    /**
+     * １つのアニメーションするタイルを置いたタイルの範囲
+     */
+    private static final class Cells {
+        /**
+         * レイヤーごとの置いたタイルの数
+         */
+        private final int[] counts;
+        /**
+         * 置いたタイルの数
+         */
+        private int total;
+        /**
+         * 範囲の左端の列
+         */
+        private int left = Integer.MAX_VALUE;
+        /**
+         * 範囲の上端の行
+         */
+        private int top = Integer.MAX_VALUE;
+        /**
+         * 範囲の右端の次の列
+         */
+        private int right = Integer.MIN_VALUE;
+        /**
+         * 範囲の下端の次の行
+         */
+        private int bottom = Integer.MIN_VALUE;
+        /**
+         * 前回のコマの番号, まだ調べていないときは {@code -1}
+         */
+        private int frame = -1;
+
+        /**
+         * コンストラクタ
+         *
+         * @param layer レイヤーの数
+         */
+        private Cells(int layer) {
+            this.counts = new int[layer];
+        }
+
+        /**
+         * タイルを加える
+         *
+         * @param layer レイヤー
+         * @param x x座標
+         * @param y y座標
+         */
+        void add(int layer, int x, int y) {
+            counts[layer]++;
+            total++;
+            left = Math.min(left, x);
+            top = Math.min(top, y);
+            right = Math.max(right, x + 1);
+            bottom = Math.max(bottom, y + 1);
+        }
+
+        /**
+         * タイルを１つ取り除く
+         *
+         * @param layer レイヤー
+         * @return 置いたタイルがなくなったときは {@code true}
+         */
+        boolean remove(int layer) {
+            if (counts[layer] > 0) {
+                counts[layer]--;
+                total--;
+            }
+            return total == 0;
+        }
+
+        /**
+         * レイヤーのタイルをすべて取り除く
+         *
+         * @param layer レイヤー
+         * @return 置いたタイルがなくなったときは {@code true}
+         */
+        boolean clear(int layer) {
+            total -= counts[layer];
+            counts[layer] = 0;
+            return total == 0;
+        }
+
+        /**
+         * タイルを置いた一番下のレイヤーを取得
+         *
+         * @return 一番下のレイヤー
+         */
+        int fromLayer() {
+            int i = 0;
+            while (counts[i] == 0) {
+                i++;
+            }
+            return i;
+        }
+
+        /**
+         * タイルを置いた一番上のレイヤーを取得
+         *
+         * @return 一番上のレイヤー
+         */
+        int toLayer() {
+            int i = counts.length - 1;
+            while (counts[i] == 0) {
+                i--;
+            }
+            return i;
+        }
+    }
+}
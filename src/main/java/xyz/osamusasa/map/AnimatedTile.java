@@ -0,0 +1,156 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.awt.image.ImageObserver;
+import java.awt.image.ImageProducer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 時間とともにコマが切り替わるタイル
+ *
+ * 表示するコマは全体で共通の時計 {@link #clockMillis()} の時刻だけで決まるので,
+ * 同じインスタンスを置いたタイルはすべて同時に切り替わり, タイルごとの処理は必要ない.
+ * {@code TableMap} は {@link TiledMap#update()} が呼ばれるたびにコマが切り替わったタイルだけを再描画する.
+ */
+public final class AnimatedTile extends Image {
+    /**
+     * 全体で共通の時計の基準の時刻
+     */
+    private static final long EPOCH_NANOS = System.nanoTime();
+
+    /**
+     * コマの画像
+     */
+    private final Image[] frames;
+    /**
+     * それぞれのコマが終わる時刻, 一周の先頭からのミリ秒
+     */
+    private final long[] frameEnds;
+    /**
+     * すべてのコマが不透明であるか
+     */
+    private final boolean isOpaque;
+
+    /**
+     * コンストラクタ
+     *
+     * @param frames コマの画像
+     * @param durations それぞれのコマを表示するミリ秒
+     */
+    public AnimatedTile(Image[] frames, int[] durations) {
+        if (frames.length == 0 || frames.length != durations.length) {
+            throw new IllegalArgumentException("コマの数が不正: " + frames.length + ", " + durations.length);
+        }
+        this.frames = frames.clone();
+        this.frameEnds = new long[durations.length];
+        long end = 0;
+        boolean opaque = true;
+        for (int i = 0; i < durations.length; i++) {
+            if (durations[i] <= 0) {
+                throw new IllegalArgumentException("durations[" + i + "]: " + durations[i]);
+            }
+            end += durations[i];
+            frameEnds[i] = end;
+            opaque &= TableMap.isOpaque(frames[i]);
+        }
+        this.isOpaque = opaque;
+    }
+
+    /**
+     * {@code BitmapData} の横に並んだタイルを同じ間隔で切り替えるタイルを作成する
+     *
+     * @param bitmapData タイルの画像
+     * @param x 最初のコマのx座標
+     * @param y コマのy座標
+     * @param count コマの数
+     * @param duration それぞれのコマを表示するミリ秒
+     * @return 作成したタイル
+     */
+    public static AnimatedTile of(BitmapData bitmapData, int x, int y, int count, int duration) {
+        Image[] frames = new Image[count];
+        for (int i = 0; i < count; i++) {
+            frames[i] = bitmapData.getTile(x + i, y);
+        }
+        int[] durations = new int[count];
+        Arrays.fill(durations, duration);
+        return new AnimatedTile(frames, durations);
+    }
+
+    /**
+     * 全体で共通の時計の時刻を取得
+     *
+     * @return 時刻 (ミリ秒)
+     */
+    public static long clockMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - EPOCH_NANOS);
+    }
+
+    /**
+     * 指定された時刻に表示するコマの番号を取得
+     *
+     * @param timeMillis 時刻 (ミリ秒)
+     * @return コマの番号
+     */
+    public int getFrameIndex(long timeMillis) {
+        if (frames.length == 1) {
+            return 0;
+        }
+        long t = Math.floorMod(timeMillis, getCycleMillis());
+        int i = Arrays.binarySearch(frameEnds, t);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    /**
+     * 指定された時刻に表示するコマの画像を取得
+     *
+     * @param timeMillis 時刻 (ミリ秒)
+     * @return コマの画像
+     */
+    public Image getFrame(long timeMillis) {
+        return frames[getFrameIndex(timeMillis)];
+    }
+
+    /**
+     * 一周にかかるミリ秒を取得
+     *
+     * @return 一周にかかるミリ秒
+     */
+    public long getCycleMillis() {
+        return frameEnds[frameEnds.length - 1];
+    }
+
+    /**
+     * すべてのコマが不透明であるかを判定
+     *
+     * @return すべてのコマが不透明であれば {@code true}
+     */
+    boolean isOpaque() {
+        return isOpaque;
+    }
+
+    @Override
+    public int getWidth(ImageObserver observer) {
+        return frames[0].getWidth(observer);
+    }
+
+    @Override
+    public int getHeight(ImageObserver observer) {
+        return frames[0].getHeight(observer);
+    }
+
+    @Override
+    public ImageProducer getSource() {
+        return frames[0].getSource();
+    }
+
+    @Override
+    public Graphics getGraphics() {
+        throw new UnsupportedOperationException("コマが切り替わる画像には描画できない");
+    }
+
+    @Override
+    public Object getProperty(String name, ImageObserver observer) {
+        return frames[0].getProperty(name, observer);
+    }
+}
@@ -0,0 +1,135 @@
+package xyz.osamusasa.map;
+
+import java.util.Arrays;
+
+/**
+ * レイヤーごとに {@code short} の配列でタイルIDを保持する記憶領域
+ *
+ * タイル１枚あたり２バイトで, タイルIDは {@code 0} から {@code 65535} まで使える.
+ * 配列は行ごとに並んでいる.
+ */
+public class ArrayTileIdLayerStorage extends TileIdLayerStorage {
+    /**
+     * 使用できる最大のタイルID
+     */
+    public static final int MAX_ID = 0xFFFF;
+
+    /**
+     * 行数
+     */
+    private final int row;
+    /**
+     * 列数
+     */
+    private final int col;
+
+    /**
+     * レイヤーごとのタイルIDの配列
+     */
+    private final short[][] tileIds;
+
+    /**
+     * コンストラクタ
+     *
+     * @param layer レイヤーの数
+     * @param row 行数
+     * @param col 列数
+     * @param palette タイルIDと画像の対応表
+     */
+    public ArrayTileIdLayerStorage(int layer, int row, int col, TilePalette palette) {
+        super(palette);
+        this.row = row;
+        this.col = col;
+        this.tileIds = new short[layer][row * col];
+    }
+
+    /**
+     * 読み込んだタイルIDの配列をそのまま使うコンストラクタ
+     *
+     * @param tileIds レイヤーごとに行ごとに並べたタイルIDの配列
+     * @param row 行数
+     * @param col 列数
+     * @param palette タイルIDと画像の対応表
+     */
+    ArrayTileIdLayerStorage(short[][] tileIds, int row, int col, TilePalette palette) {
+        super(palette);
+        for (short[] ids: tileIds) {
+            if (ids.length != row * col) {
+                throw new IllegalArgumentException("配列の長さが不正: " + ids.length);
+            }
+        }
+        this.row = row;
+        this.col = col;
+        this.tileIds = tileIds;
+    }
+
+    @Override
+    public int getLayerCount() {
+        return tileIds.length;
+    }
+
+    @Override
+    public int getCol() {
+        return col;
+    }
+
+    @Override
+    public int getRow() {
+        return row;
+    }
+
+    @Override
+    public int getTileId(int layer, int x, int y) {
+        return tileIds[layer][index(x, y)] & 0xFFFF;
+    }
+
+    @Override
+    public void setTileId(int layer, int x, int y, int id) {
+        tileIds[layer][index(x, y)] = toShort(id);
+    }
+
+    @Override
+    public void fillTileId(int layer, int id) {
+        Arrays.fill(tileIds[layer], toShort(id));
+    }
+
+    /**
+     * 指定されたレイヤーのタイルIDの配列を取得する
+     *
+     * 配列は行ごとに並んでおり, タイル {@code (x, y)} は {@code y * 列数 + x} 番目にある
+     *
+     * @param layer レイヤー
+     * @return タイルIDの配列
+     */
+    short[] getLayer(int layer) {
+        return tileIds[layer];
+    }
+
+    /**
+     * タイルの配列内の位置を取得
+     *
+     * @param x x座標
+     * @param y y座標
+     * @return 配列内の位置
+     */
+    private int index(int x, int y) {
+        if (x < 0 || x >= col || y < 0 || y >= row) {
+            throw new ArrayIndexOutOfBoundsException("(" + x + ", " + y + ")");
+        }
+        return y * col + x;
+    }
+
+    /**
+     * タイルIDを配列に格納する値に変換する
+     *
+     * @param id タイルID
+     * @return 配列に格納する値
+     * @throws IllegalArgumentException タイルIDが範囲外のとき
+     */
+    private static short toShort(int id) {
+        if (id < 0 || id > MAX_ID) {
+            throw new IllegalArgumentException("タイルIDが範囲外: " + id);
+        }
+        return (short) id;
+    }
+}
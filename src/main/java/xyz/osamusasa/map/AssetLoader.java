@@ -0,0 +1,194 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * 画像ファイルを別のスレッドで並行に読み込む
+ *
+ * 読み込みは呼び出したスレッドをブロックせず, 結果は {@code CompletableFuture} で返す.
+ * 読み込みが終わる前にマップに配置したいときは {@link DeferredImage} を使う.
+ * {@code DeferredImage} の読み込みに失敗したときは仮の表示のままになるので, 原因をログに記録する.
+ *
+ * <pre>{@code
+ * AssetLoader loader = new AssetLoader();
+ * CompletableFuture<BitmapData> data = loader.loadBitmapData("tiles.bmp", 32, 32);
+ * map.fill(loader.tile(data, 0, 0), 0);
+ * }</pre>
+ */
+public class AssetLoader implements AutoCloseable {
+    /**
+     * スレッドの番号
+     */
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    /**
+     * ロガー
+     */
+    private static final Logger LOGGER = Logger.getLogger(AssetLoader.class.getName());
+
+    /**
+     * 読み込むスレッド
+     */
+    private final ExecutorService executor;
+
+    /**
+     * コンストラクタ
+     *
+     * プロセッサの数だけのデーモンスレッドで読み込む
+     */
+    public AssetLoader() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param threads 読み込むスレッドの数
+     */
+    public AssetLoader(int threads) {
+        ThreadFactory factory = r -> {
+            Thread thread = new Thread(r, "TiledMap-asset-" + THREAD_COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newFixedThreadPool(threads, factory);
+    }
+
+    /**
+     * 画像ファイルを読み込む
+     *
+     * @param filePath 画像ファイルへのパス
+     * @return 読み込んだ画像
+     */
+    public CompletableFuture<BufferedImage> loadImage(String filePath) {
+        return CompletableFuture.supplyAsync(() -> BitmapData.loadBitmap(filePath), executor);
+    }
+
+    /**
+     * 画像ファイルを読み込み, 指定された色を透過色に置き換える
+     *
+     * 透過できる形式でない画像は {@code TYPE_INT_ARGB} に変換する
+     *
+     * @param filePath 画像ファイルへのパス
+     * @param transparentColor 透過色に置き換える色
+     * @return 読み込んだ画像
+     */
+    public CompletableFuture<BufferedImage> loadImage(String filePath, Color transparentColor) {
+        return loadImage(filePath).thenApplyAsync(img -> {
+            BufferedImage argb = img.getType() == BufferedImage.TYPE_INT_ARGB ? img : BitmapData.toArgb(img);
+            BitmapData.changeTransparent(argb, transparentColor);
+            return argb;
+        }, executor);
+    }
+
+    /**
+     * {@code BitmapData} を読み込む
+     *
+     * @param filePath 画像ファイルへのパス
+     * @param width タイル１マスの幅
+     * @param height タイル１マスの高さ
+     * @return 読み込んだ {@code BitmapData}
+     */
+    public CompletableFuture<BitmapData> loadBitmapData(String filePath, int width, int height) {
+        return loadBitmapData(filePath, width, height, null, false);
+    }
+
+    /**
+     * {@code BitmapData} を読み込む
+     *
+     * @param filePath 画像ファイルへのパス
+     * @param width タイル１マスの幅
+     * @param height タイル１マスの高さ
+     * @param transparentColor 透過色に置き換える色, {@code null} のときは置き換えない
+     * @param isCompatible 画面に適した形式の画像に変換するか
+     * @return 読み込んだ {@code BitmapData}
+     */
+    public CompletableFuture<BitmapData> loadBitmapData(String filePath, int width, int height,
+                                                        Color transparentColor, boolean isCompatible) {
+        return CompletableFuture.supplyAsync(
+                () -> new BitmapData(filePath, width, height, transparentColor, isCompatible), executor);
+    }
+
+    /**
+     * 画像ファイルを読み込む画像を作成する
+     *
+     * @param filePath 画像ファイルへのパス
+     * @return 読み込みが終わるまで仮の表示をする画像
+     */
+    public DeferredImage image(String filePath) {
+        return deferred(loadImage(filePath), filePath);
+    }
+
+    /**
+     * 画像ファイルを読み込み, 指定された色を透過色に置き換える画像を作成する
+     *
+     * @param filePath 画像ファイルへのパス
+     * @param transparentColor 透過色に置き換える色
+     * @return 読み込みが終わるまで仮の表示をする画像
+     */
+    public DeferredImage image(String filePath, Color transparentColor) {
+        return deferred(loadImage(filePath, transparentColor), filePath);
+    }
+
+    /**
+     * 読み込み中の {@code BitmapData} のタイルを表す画像を作成する
+     *
+     * @param bitmapData 読み込み中の {@code BitmapData}
+     * @param x タイルのx座標
+     * @param y タイルのy座標
+     * @return 読み込みが終わるまで仮の表示をする画像
+     */
+    public DeferredImage tile(CompletableFuture<BitmapData> bitmapData, int x, int y) {
+        return deferred(bitmapData.thenApplyAsync(data -> data.getTile(x, y), executor), "タイル (" + x + ", " + y + ")");
+    }
+
+    /**
+     * 読み込み中の {@code BitmapData} の指定した色を透過色に置き換えたタイルを表す画像を作成する
+     *
+     * @param bitmapData 読み込み中の {@code BitmapData}
+     * @param x タイルのx座標
+     * @param y タイルのy座標
+     * @param transparentColor 透過色に置き換える色
+     * @return 読み込みが終わるまで仮の表示をする画像
+     */
+    public DeferredImage tile(CompletableFuture<BitmapData> bitmapData, int x, int y, Color transparentColor) {
+        return deferred(bitmapData.thenApplyAsync(data -> data.getTile(x, y, transparentColor), executor),
+                "タイル (" + x + ", " + y + ")");
+    }
+
+    /**
+     * 読み込み処理の結果を表す画像を作成する
+     *
+     * 読み込みに失敗したときはログに記録する
+     *
+     * @param future 読み込み処理
+     * @param name ログに記録する読み込むものの名前
+     * @return 読み込みが終わるまで仮の表示をする画像
+     */
+    private static DeferredImage deferred(CompletableFuture<? extends Image> future, String name) {
+        future.whenComplete((img, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.WARNING, "画像を読み込めない: " + name, e);
+            }
+        });
+        return DeferredImage.of(future);
+    }
+
+    /**
+     * 読み込むスレッドを停止する
+     *
+     * 読み込み中の処理は最後まで実行する
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
@@ -3,21 +3,45 @@ package xyz.osamusasa.map;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * ビットマップデータ
  *
- * 複数の画像を１つのファイルのまとめたものを処理する
+ * 複数の画像を１つのファイルのまとめたものを処理する.
+ * タイルの取得は複数のスレッドから同時に呼び出せる.
  */
 public class BitmapData {
+    /**
+     * 透過色の置き換えを並列に処理するときの１つの帯の最小の画素数
+     */
+    private static final int TRANSPARENT_BAND_PIXELS = 1 << 16;
+
     /**
      * ソース画像ファイル
+     *
+     * 必要な部分だけを読み込むときは {@code null}
      */
     private BufferedImage tile;
 
+    /**
+     * ソース画像を帯ごとに読み込む処理
+     *
+     * 画像全体を読み込んだときは {@code null}
+     */
+    private StripDecoder decoder;
+
     /**
      * タイル１マスの幅
      */
@@ -28,6 +52,35 @@ public class BitmapData {
      */
     private int height;
 
+    /**
+     * 画面に適した形式の画像に変換するか
+     */
+    private boolean isCompatible;
+
+    /**
+     * ソース画像全体に適用した透過色
+     *
+     * 適用していないときは {@code null}
+     */
+    private Color transparentColor;
+
+    /**
+     * 切り出したタイルの画像
+     */
+    private TileSlots tiles;
+
+    /**
+     * 透過色ごとの切り出したタイルの画像
+     */
+    private Map<Color, TileSlots> transparentTiles;
+
+    /**
+     * 切り出したタイルの画像から配列内の位置への対応
+     *
+     * 参照されなくなったタイルはGCで回収される
+     */
+    private final Map<BufferedImage, Integer> tileIndices = new WeakHashMap<>();
+
     /**
      * コンストラクタ
      *
@@ -36,26 +89,265 @@ public class BitmapData {
      * @param height タイル１マスの高さ
      */
     public BitmapData(String filePath, int width, int height) {
+        this(filePath, width, height, false);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * {@code isCompatible} が {@code true} のときは切り出したタイルを画面に適した形式に変換し, 描画を速くする.
+     * ヘッドレス環境では変換しない.
+     *
+     * @param filePath 画像ファイルへのパス
+     * @param width タイル１マスの幅
+     * @param height タイル１マスの高さ
+     * @param isCompatible 画面に適した形式の画像に変換するか
+     */
+    public BitmapData(String filePath, int width, int height, boolean isCompatible) {
+        this(filePath, width, height, null, isCompatible);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * 読み込んだソース画像全体の指定された色を一度だけ透過色に置き換える.
+     * 以降 {@link #getTile(int, int)} は透過色を置き換えたタイルを返す.
+     *
+     * @param filePath 画像ファイルへのパス
+     * @param width タイル１マスの幅
+     * @param height タイル１マスの高さ
+     * @param transparentColor 透過色に置き換える色, {@code null} のときは置き換えない
+     * @param isCompatible 画面に適した形式の画像に変換するか
+     */
+    public BitmapData(String filePath, int width, int height, Color transparentColor, boolean isCompatible) {
         tile = loadBitmap(filePath);
         this.width = width;
         this.height = height;
+        this.isCompatible = isCompatible;
+        this.tiles = new TileSlots(getColumns() * getRows(), false);
+        this.transparentTiles = new HashMap<>();
+
+        if (transparentColor != null) {
+            if (tile.getType() != BufferedImage.TYPE_INT_ARGB) {
+                tile = toArgb(tile);
+            }
+            changeTransparent(tile, transparentColor);
+            this.transparentColor = transparentColor;
+        }
+    }
+
+    /**
+     * 必要な部分だけを読み込むコンストラクタ
+     *
+     * ソース画像全体は読み込まず, タイルが要求されたときにそのタイルを含む行だけを読み込む.
+     * 読み込んだ行は合計が {@code memoryBudget} バイトを超えない範囲で最近使ったものから保持する.
+     * 透過色はソース画像全体ではなく切り出したタイルごとに置き換える.
+     * 切り出したタイルはどこからも参照されなくなると破棄し, 再び要求されたときに切り出し直す.
+     *
+     * @param filePath 画像ファイルへのパス
+     * @param width タイル１マスの幅
+     * @param height タイル１マスの高さ
+     * @param transparentColor 透過色に置き換える色, {@code null} のときは置き換えない
+     * @param isCompatible 画面に適した形式の画像に変換するか
+     * @param memoryBudget 読み込んだ行を保持するメモリのバイト数の上限
+     */
+    public BitmapData(String filePath, int width, int height, Color transparentColor, boolean isCompatible, long memoryBudget) {
+        try {
+            decoder = new StripDecoder(new File(filePath), height, memoryBudget);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.width = width;
+        this.height = height;
+        this.isCompatible = isCompatible;
+        this.transparentColor = transparentColor;
+        this.tiles = new TileSlots(getColumns() * getRows(), true);
+        this.transparentTiles = new HashMap<>();
+    }
+
+    /**
+     * ソース画像の横方向のタイルの数を取得
+     *
+     * @return 横方向のタイルの数
+     */
+    public int getColumns() {
+        return (decoder == null ? tile.getWidth() : decoder.getWidth()) / width;
+    }
+
+    /**
+     * ソース画像の縦方向のタイルの数を取得
+     *
+     * @return 縦方向のタイルの数
+     */
+    public int getRows() {
+        return (decoder == null ? tile.getHeight() : decoder.getHeight()) / height;
+    }
+
+    /**
+     * ソース画像全体を縮小したプレビューを取得
+     *
+     * 必要な部分だけを読み込むときは画素を間引きながらファイルから直接読み込むので,
+     * 全体を読み込むことはない
+     *
+     * @param maxWidth プレビューの最大の幅
+     * @param maxHeight プレビューの最大の高さ
+     * @return プレビューの画像
+     */
+    public BufferedImage getPreview(int maxWidth, int maxHeight) {
+        int w = decoder == null ? tile.getWidth() : decoder.getWidth();
+        int h = decoder == null ? tile.getHeight() : decoder.getHeight();
+        int subsampling = Math.max(1, Math.max(
+                (w + maxWidth - 1) / maxWidth,
+                (h + maxHeight - 1) / maxHeight));
+        if (decoder != null) {
+            return decoder.readSubsampled(subsampling);
+        }
+        BufferedImage preview = new BufferedImage(
+                (w + subsampling - 1) / subsampling, (h + subsampling - 1) / subsampling, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = preview.getGraphics();
+        g.drawImage(tile, 0, 0, preview.getWidth(), preview.getHeight(), null);
+        g.dispose();
+        return preview;
     }
 
     /**
      * 指定した位置のタイルの画像を取得
      *
+     * タイルは最初に呼ばれたときに一度だけ切り出され, 以降は同じインスタンスを返す.
+     * 必要な部分だけを読み込むときは, どこからも参照されなくなるまで同じインスタンスを返す.
+     * 切り出しはロックの外で行う
+     *
      * @param x 取得するタイルのx座標
      * @param y 取得するタイルのy座標
      * @return 指定した位置のタイルの画像
      */
     BufferedImage getTile(int x, int y) {
+        int index = index(x, y);
+        synchronized (this) {
+            BufferedImage cached = tiles.get(index);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        int sourceTransparency = decoder == null ? tile.getTransparency() : decoder.getTransparency();
+        int transparency = transparentColor == null ? sourceTransparency : Transparency.BITMASK;
+        BufferedImage cut = toCompatible(copyTile(x, y), transparency);
+        synchronized (this) {
+            BufferedImage kept = tiles.putIfAbsent(index, cut);
+            if (kept == cut) {
+                tileIndices.put(cut, index);
+            }
+            return kept;
+        }
+    }
+
+    /**
+     * {@link #getTile(int, int)} で取得したタイルの位置を取得
+     *
+     * @param img タイルの画像
+     * @return タイルの {@code y * 列数 + x}, このオブジェクトのタイルでないときは {@code -1}
+     */
+    synchronized int indexOf(Image img) {
+        Integer index = tileIndices.get(img);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * 指定した色を透過色に置き換えたタイルの画像を取得
+     *
+     * タイルは透過色ごとに最初に呼ばれたときに一度だけ作成され, 以降は同じインスタンスを返す.
+     * 必要な部分だけを読み込むときは, どこからも参照されなくなるまで同じインスタンスを返す.
+     * 切り出しはロックの外で行う
+     *
+     * @param x 取得するタイルのx座標
+     * @param y 取得するタイルのy座標
+     * @param c 透過色に置き換える色
+     * @return 指定した位置のタイルの画像
+     */
+    BufferedImage getTile(int x, int y, Color c) {
+        if (c.equals(transparentColor)) {
+            return getTile(x, y);
+        }
+        int index = index(x, y);
+        TileSlots keyed;
+        synchronized (this) {
+            keyed = transparentTiles.get(c);
+            if (keyed == null) {
+                keyed = new TileSlots(tiles.size(), decoder != null);
+                transparentTiles.put(c, keyed);
+            }
+            BufferedImage cached = keyed.get(index);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        BufferedImage bimg = copyTile(x, y);
+        changeTransparent(bimg, c);
+        BufferedImage cut = toCompatible(bimg, Transparency.BITMASK);
+        synchronized (this) {
+            return keyed.putIfAbsent(index, cut);
+        }
+    }
+
+    /**
+     * タイルの配列内の位置を取得
+     *
+     * @param x タイルのx座標
+     * @param y タイルのy座標
+     * @return 配列内の位置
+     */
+    private int index(int x, int y) {
+        if (x < 0 || x >= getColumns() || y < 0 || y >= getRows()) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + ")");
+        }
+        return y * getColumns() + x;
+    }
+
+    /**
+     * ソース画像からタイルを切り出す
+     *
+     * @param x タイルのx座標
+     * @param y タイルのy座標
+     * @return 切り出したタイルの画像
+     */
+    private BufferedImage copyTile(int x, int y) {
         BufferedImage bimg = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
         Graphics g = bimg.getGraphics();
-        g.drawImage(tile.getSubimage(x*width, y*height, width, height), 0, 0, null);
+        if (decoder == null) {
+            g.drawImage(tile.getSubimage(x*width, y*height, width, height), 0, 0, null);
+        } else {
+            g.drawImage(decoder.getStrip(y).getSubimage(x*width, 0, width, height), 0, 0, null);
+        }
         g.dispose();
+        if (decoder != null && transparentColor != null) {
+            changeTransparent(bimg, transparentColor);
+        }
         return bimg;
     }
 
+    /**
+     * 画像を画面に適した形式に変換する
+     *
+     * 変換しない設定のとき, またはヘッドレス環境ではそのまま返す
+     *
+     * @param bimg 変換する画像
+     * @param transparency 画像の透過の種類
+     * @return 変換した画像
+     */
+    private BufferedImage toCompatible(BufferedImage bimg, int transparency) {
+        if (!isCompatible || GraphicsEnvironment.isHeadless()) {
+            return bimg;
+        }
+        GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice()
+                .getDefaultConfiguration();
+        BufferedImage compatible = gc.createCompatibleImage(bimg.getWidth(), bimg.getHeight(), transparency);
+        Graphics g = compatible.getGraphics();
+        g.drawImage(bimg, 0, 0, null);
+        g.dispose();
+        return compatible;
+    }
+
     /**
      * 指定されたパスのファイルを読み込む
      *
@@ -87,16 +379,219 @@ public class BitmapData {
      * @param c 透過色に置き換える色
      */
     static void changeTransparent(BufferedImage img, Color c) {
-        int w = img.getWidth();     //BufferedImageの幅
-        int h = img.getHeight();    //BufferedImageの高さ
         int t = c.getRGB();         //透明色に変換する色のRGB値
+        TransparentTask task = new TransparentTask(img, t, 0, img.getHeight());
+        if ((long) img.getWidth() * img.getHeight() <= TRANSPARENT_BAND_PIXELS) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+    }
+
+    /**
+     * 画像を {@code TYPE_INT_ARGB} の画像に変換する
+     *
+     * @param img 変換する画像
+     * @return 変換した画像
+     */
+    static BufferedImage toArgb(BufferedImage img) {
+        BufferedImage bimg = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics g = bimg.getGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return bimg;
+    }
+
+    /**
+     * 切り出したタイルの画像を保持する配列
+     *
+     * 必要な部分だけを読み込むときは弱参照で保持し,
+     * どこからも参照されなくなったタイルはGCで回収されるようにする
+     */
+    private static final class TileSlots {
+        /**
+         * タイルの画像, または画像の弱参照
+         */
+        private final Object[] slots;
+        /**
+         * 弱参照で保持するか
+         */
+        private final boolean isWeak;
+
+        /**
+         * コンストラクタ
+         *
+         * @param size タイルの数
+         * @param isWeak 弱参照で保持するか
+         */
+        private TileSlots(int size, boolean isWeak) {
+            this.slots = new Object[size];
+            this.isWeak = isWeak;
+        }
+
+        /**
+         * タイルの数を取得
+         *
+         * @return タイルの数
+         */
+        int size() {
+            return slots.length;
+        }
+
+        /**
+         * タイルの画像を取得
+         *
+         * @param index 配列内の位置
+         * @return タイルの画像, まだ切り出していないか回収されたときは {@code null}
+         */
+        BufferedImage get(int index) {
+            Object slot = slots[index];
+            if (slot instanceof WeakReference) {
+                return (BufferedImage) ((WeakReference<?>) slot).get();
+            }
+            return (BufferedImage) slot;
+        }
 
-        //RGB値を0(透明色)に置換
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                if (img.getRGB(x, y) == t) img.setRGB(x, y, 0);
+        /**
+         * 保持していないときだけタイルの画像を保持する
+         *
+         * @param index 配列内の位置
+         * @param img タイルの画像
+         * @return 保持している画像, 既に保持していたときはその画像
+         */
+        BufferedImage putIfAbsent(int index, BufferedImage img) {
+            BufferedImage cached = get(index);
+            if (cached != null) {
+                return cached;
             }
+            slots[index] = isWeak ? new WeakReference<>(img) : img;
+            return img;
         }
     }
 
+    /**
+     * 画像の行の範囲の指定された色を透過色に置き換える処理
+     *
+     * 範囲が大きいときは行の帯に分割して並列に処理する.
+     * 画素が {@code int} で格納されている画像はラスタの画素の値を一行ずつまとめて読み書きし,
+     * それ以外の画像はRGB値を一行ずつまとめて読み書きする.
+     * データバッファの配列は取り出さないので, 画像はアクセラレーションされたままになる.
+     */
+    private static final class TransparentTask extends RecursiveAction {
+        /**
+         * 画像
+         */
+        private final BufferedImage img;
+        /**
+         * 透明色に変換する色のRGB値
+         */
+        private final int rgb;
+        /**
+         * 処理する最初の行
+         */
+        private final int from;
+        /**
+         * 処理する最後の行の次の行
+         */
+        private final int to;
+
+        /**
+         * コンストラクタ
+         *
+         * @param img 画像
+         * @param rgb 透明色に変換する色のRGB値
+         * @param from 処理する最初の行
+         * @param to 処理する最後の行の次の行
+         */
+        private TransparentTask(BufferedImage img, int rgb, int from, int to) {
+            this.img = img;
+            this.rgb = rgb;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int w = img.getWidth();
+            if ((long) (to - from) * w > TRANSPARENT_BAND_PIXELS && to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(
+                        new TransparentTask(img, rgb, from, mid),
+                        new TransparentTask(img, rgb, mid, to)
+                );
+                return;
+            }
+
+            WritableRaster raster = img.getRaster();
+            boolean isOpaque = (rgb >>> 24) == 0xFF;
+            switch (img.getType()) {
+                case BufferedImage.TYPE_INT_ARGB:
+                    replaceInts(raster, w, rgb, 0);
+                    return;
+                case BufferedImage.TYPE_INT_ARGB_PRE:
+                    if (isOpaque) {
+                        replaceInts(raster, w, rgb, 0);
+                        return;
+                    }
+                    break;
+                case BufferedImage.TYPE_INT_RGB:
+                    //アルファ値を持たないのでRGB値だけを比較する
+                    if (isOpaque) {
+                        replaceInts(raster, w, rgb & 0xFFFFFF, 0xFF000000);
+                    }
+                    return;
+                default:
+                    break;
+            }
+            replaceRows(w);
+        }
+
+        /**
+         * ラスタの画素の値を一行ずつまとめて読み書きして置き換える
+         *
+         * @param raster 画像のラスタ
+         * @param w 画像の幅
+         * @param target 置き換える画素の値
+         * @param ignore 比較しないビット
+         */
+        private void replaceInts(WritableRaster raster, int w, int target, int ignore) {
+            int[] line = new int[w];
+            int mask = ~ignore;
+            for (int y = from; y < to; y++) {
+                raster.getDataElements(0, y, w, 1, line);
+                boolean isChanged = false;
+                for (int x = 0; x < w; x++) {
+                    if ((line[x] & mask) == target) {
+                        line[x] = 0;
+                        isChanged = true;
+                    }
+                }
+                if (isChanged) {
+                    raster.setDataElements(0, y, w, 1, line);
+                }
+            }
+        }
+
+        /**
+         * 一行ずつまとめて読み書きして置き換える
+         *
+         * @param w 画像の幅
+         */
+        private void replaceRows(int w) {
+            int[] line = new int[w];
+            for (int y = from; y < to; y++) {
+                img.getRGB(0, y, w, 1, line, 0, w);
+                boolean isChanged = false;
+                for (int x = 0; x < w; x++) {
+                    if (line[x] == rgb) {
+                        line[x] = 0;
+                        isChanged = true;
+                    }
+                }
+                if (isChanged) {
+                    img.setRGB(0, y, w, 1, line, 0, w);
+                }
+            }
+        }
+    }
 }
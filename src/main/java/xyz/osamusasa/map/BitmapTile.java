@@ -8,6 +8,11 @@ import java.awt.image.BufferedImage;
  * ビットマップを表示するタイル
  */
 public class BitmapTile extends TableMap {
+    /**
+     * キャラクターの画像の透過色
+     */
+    private static final Color CHARACTER_TRANSPARENT_COLOR = new Color(255, 174, 200);
+
     /**
      * ビットマップデータ
      */
@@ -48,6 +53,7 @@ public class BitmapTile extends TableMap {
      */
     private BitmapTile(){
         super(2, 2, 3, 100, 100);
+        setStaticLayers(1);
 
         isConnectUpDown = true;
         isConnectLeftRight = true;
@@ -64,6 +70,20 @@ public class BitmapTile extends TableMap {
 
     }
 
+    /**
+     * コンストラクタ
+     *
+     * ビットマップファイルは別のスレッドで読み込む
+     *
+     * @param fileName ビットマップファイルのパス
+     * @param loader 読み込みに使う {@code AssetLoader}
+     */
+    public BitmapTile(String fileName, AssetLoader loader) {
+        this();
+
+        bgImg = loader.image(fileName);
+    }
+
     /**
      * コンストラクタ
      *
@@ -102,7 +122,21 @@ public class BitmapTile extends TableMap {
      * @param fileName キャラクターのビットマップファイルのパス
      */
     public void addCharacter(String fileName) {
-        addCharacter(BitmapData.loadBitmap(fileName));
+        BufferedImage image = BitmapData.loadBitmap(fileName);
+        BitmapData.changeTransparent(image, CHARACTER_TRANSPARENT_COLOR);
+        addCharacter(image);
+    }
+
+    /**
+     * マップにキャラクターをセット
+     *
+     * キャラクターのビットマップファイルは別のスレッドで読み込み, 読み込むまでは仮の表示をする
+     *
+     * @param fileName キャラクターのビットマップファイルのパス
+     * @param loader 読み込みに使う {@code AssetLoader}
+     */
+    public void addCharacter(String fileName, AssetLoader loader) {
+        addCharacter(loader.image(fileName, CHARACTER_TRANSPARENT_COLOR));
     }
 
     /**
@@ -112,7 +146,25 @@ public class BitmapTile extends TableMap {
      * @param y キャラクターの画像の {@code BitmapData} オブジェクトのy座標
      */
     public void addCharacter(int x, int y) {
-        addCharacter(bitmapData.getTile(x,y));
+        addCharacter(bitmapData.getTile(x, y, CHARACTER_TRANSPARENT_COLOR));
+    }
+
+    /**
+     * 上下がループしてるかを取得
+     *
+     * @return 上下がループしてるときは {@code true}
+     */
+    public boolean isConnectUpDown() {
+        return isConnectUpDown;
+    }
+
+    /**
+     * 左右がループしてるかを取得
+     *
+     * @return 左右がループしてるときは {@code true}
+     */
+    public boolean isConnectLeftRight() {
+        return isConnectLeftRight;
     }
 
     /**
@@ -120,8 +172,7 @@ public class BitmapTile extends TableMap {
      *
      * @param image キャラクターを表す画像
      */
-    private void addCharacter(BufferedImage image) {
-        BitmapData.changeTransparent(image, new Color(255, 174, 200));
+    private void addCharacter(Image image) {
         characterImg = image;
         charX = 0;
         charY = 0;
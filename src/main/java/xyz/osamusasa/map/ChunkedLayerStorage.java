@@ -0,0 +1,255 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * タイルを固定サイズのチャンクに分けて保持する疎な記憶領域
+ *
+ * チャンクは最初に画像が書き込まれたときに確保され, 画像がなくなると破棄される.
+ * レイヤー全体を１つの画像で埋めたときはチャンクごとに画像を１つだけ保持する.
+ * 使用するメモリはレイヤー数と行数と列数の積ではなく画像のあるタイルの数に比例する.
+ */
+public class ChunkedLayerStorage implements LayerStorage {
+    /**
+     * チャンクの一辺のタイル数の２の対数の既定値
+     */
+    public static final int DEFAULT_CHUNK_SHIFT = 4;
+
+    /**
+     * 行数
+     */
+    private final int row;
+    /**
+     * 列数
+     */
+    private final int col;
+
+    /**
+     * チャンクの一辺のタイル数の２の対数
+     */
+    private final int chunkShift;
+    /**
+     * チャンク内の座標を取り出すマスク
+     */
+    private final int chunkMask;
+    /**
+     * 横方向のチャンクの数
+     */
+    private final int chunksX;
+    /**
+     * 縦方向のチャンクの数
+     */
+    private final int chunksY;
+
+    /**
+     * レイヤーごとのチャンクの配列
+     *
+     * 画像のないチャンクは {@code null}
+     */
+    private final Chunk[][] chunks;
+
+    /**
+     * コンストラクタ
+     *
+     * @param layer レイヤーの数
+     * @param row 行数
+     * @param col 列数
+     */
+    public ChunkedLayerStorage(int layer, int row, int col) {
+        this(layer, row, col, DEFAULT_CHUNK_SHIFT);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param layer レイヤーの数
+     * @param row 行数
+     * @param col 列数
+     * @param chunkShift チャンクの一辺のタイル数の２の対数
+     */
+    public ChunkedLayerStorage(int layer, int row, int col, int chunkShift) {
+        if (chunkShift < 0 || chunkShift > 15) {
+            throw new IllegalArgumentException("chunkShift: " + chunkShift);
+        }
+        this.row = row;
+        this.col = col;
+        this.chunkShift = chunkShift;
+        this.chunkMask = (1 << chunkShift) - 1;
+        this.chunksX = (col + chunkMask) >> chunkShift;
+        this.chunksY = (row + chunkMask) >> chunkShift;
+        this.chunks = new Chunk[layer][chunksX * chunksY];
+    }
+
+    @Override
+    public int getLayerCount() {
+        return chunks.length;
+    }
+
+    @Override
+    public int getCol() {
+        return col;
+    }
+
+    @Override
+    public int getRow() {
+        return row;
+    }
+
+    @Override
+    public Image get(int layer, int x, int y) {
+        checkBounds(x, y);
+        Chunk chunk = chunks[layer][chunkIndex(x, y)];
+        if (chunk == null) {
+            return null;
+        }
+        if (chunk.cells == null) {
+            return chunk.uniform;
+        }
+        return chunk.cells[cellIndex(x, y)];
+    }
+
+    @Override
+    public void set(int layer, int x, int y, Image img) {
+        checkBounds(x, y);
+        Chunk[] layerChunks = chunks[layer];
+        int index = chunkIndex(x, y);
+        Chunk chunk = layerChunks[index];
+
+        if (chunk == null) {
+            if (img == null) {
+                return;
+            }
+            chunk = new Chunk(null, 1 << (chunkShift * 2));
+            layerChunks[index] = chunk;
+        } else if (chunk.cells == null) {
+            if (chunk.uniform == img) {
+                return;
+            }
+            chunk = materialize(chunk.uniform, index);
+            layerChunks[index] = chunk;
+        }
+
+        int cell = cellIndex(x, y);
+        Image prev = chunk.cells[cell];
+        chunk.cells[cell] = img;
+        if (prev == null && img != null) {
+            chunk.count++;
+        } else if (prev != null && img == null) {
+            chunk.count--;
+            if (chunk.count == 0) {
+                layerChunks[index] = null;
+            }
+        }
+    }
+
+    @Override
+    public void fill(int layer, Image img) {
+        Chunk uniform = img == null ? null : new Chunk(img, 0);
+        Arrays.fill(chunks[layer], uniform);
+    }
+
+    /**
+     * 確保されているチャンクの数を取得
+     *
+     * @return 確保されているチャンクの数
+     */
+    public int getAllocatedChunkCount() {
+        int n = 0;
+        for (Chunk[] layerChunks: chunks) {
+            for (Chunk chunk: layerChunks) {
+                if (chunk != null) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * １つの画像で埋められたチャンクをタイルごとに画像を持つチャンクに変換する
+     *
+     * マップの範囲外のタイルは {@code null} のままにする
+     *
+     * @param img チャンクを埋めている画像
+     * @param index チャンクの番号
+     * @return 変換したチャンク
+     */
+    private Chunk materialize(Image img, int index) {
+        Chunk chunk = new Chunk(null, 1 << (chunkShift * 2));
+        int x0 = (index % chunksX) << chunkShift;
+        int y0 = (index / chunksX) << chunkShift;
+        int w = Math.min(chunkMask + 1, col - x0);
+        int h = Math.min(chunkMask + 1, row - y0);
+        for (int j = 0; j < h; j++) {
+            Arrays.fill(chunk.cells, j << chunkShift, (j << chunkShift) + w, img);
+        }
+        chunk.count = w * h;
+        return chunk;
+    }
+
+    /**
+     * タイルを含むチャンクの番号を取得
+     *
+     * @param x x座標
+     * @param y y座標
+     * @return チャンクの番号
+     */
+    private int chunkIndex(int x, int y) {
+        return (y >> chunkShift) * chunksX + (x >> chunkShift);
+    }
+
+    /**
+     * チャンク内でのタイルの番号を取得
+     *
+     * @param x x座標
+     * @param y y座標
+     * @return チャンク内でのタイルの番号
+     */
+    private int cellIndex(int x, int y) {
+        return ((y & chunkMask) << chunkShift) | (x & chunkMask);
+    }
+
+    /**
+     * 座標がマップの範囲内であるかを検査する
+     *
+     * @param x x座標
+     * @param y y座標
+     */
+    private void checkBounds(int x, int y) {
+        if (x < 0 || x >= col || y < 0 || y >= row) {
+            throw new ArrayIndexOutOfBoundsException("(" + x + ", " + y + ")");
+        }
+    }
+
+    /**
+     * チャンク
+     *
+     * {@code cells} が {@code null} のときはすべてのタイルが {@code uniform} の画像を持つ
+     */
+    private static final class Chunk {
+        /**
+         * チャンクを埋めている画像
+         */
+        private final Image uniform;
+        /**
+         * タイルごとの画像
+         */
+        private final Image[] cells;
+        /**
+         * {@code null} でない画像の数
+         */
+        private int count;
+
+        /**
+         * コンストラクタ
+         *
+         * @param uniform チャンクを埋める画像
+         * @param size タイルごとに画像を持つときのタイルの数, ０のときは持たない
+         */
+        private Chunk(Image uniform, int size) {
+            this.uniform = uniform;
+            this.cells = size == 0 ? null : new Image[size];
+        }
+    }
+}
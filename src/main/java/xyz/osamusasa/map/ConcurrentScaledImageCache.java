@@ -0,0 +1,90 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 複数のスレッドから同時に描画するための拡大縮小した画像のキャッシュ
+ *
+ * 描画サイズごとに {@link ScaledImageCache} を持つので, 異なる倍率で同時に描画してもキャッシュを破棄し合わない.
+ * それぞれのサイズのキャッシュは画像のインスタンスで分けた複数のキャッシュからなり,
+ * 異なる画像を描画するスレッドは同じロックを待たない.
+ */
+final class ConcurrentScaledImageCache implements ImageScaler {
+    /**
+     * 保持する描画サイズの数の上限
+     *
+     * 超えたときはすべてのサイズのキャッシュを破棄する
+     */
+    private static final int MAX_SIZES = 8;
+
+    /**
+     * １つのサイズのキャッシュを分ける数, ２の累乗
+     */
+    private final int stripes;
+
+    /**
+     * {@code 幅 << 32 | 高さ} から, そのサイズのキャッシュへの対応
+     */
+    private final ConcurrentHashMap<Long, ScaledImageCache[]> caches;
+
+    /**
+     * 平均の色を求めるキャッシュ
+     */
+    private final ScaledImageCache[] colorCaches;
+
+    /**
+     * コンストラクタ
+     */
+    ConcurrentScaledImageCache() {
+        this.stripes = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 4 - 1) << 1;
+        this.caches = new ConcurrentHashMap<>();
+        this.colorCaches = newStripes();
+    }
+
+    @Override
+    public BufferedImage get(Image img, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return null;
+        }
+        long key = (long) w << 32 | h;
+        ScaledImageCache[] sized = caches.get(key);
+        if (sized == null) {
+            if (caches.size() >= MAX_SIZES) {
+                caches.clear();
+            }
+            sized = caches.computeIfAbsent(key, k -> newStripes());
+        }
+        return sized[stripe(img)].get(img, w, h);
+    }
+
+    @Override
+    public Color getAverageColor(Image img) {
+        return colorCaches[stripe(img)].getAverageColor(img);
+    }
+
+    /**
+     * 画像を格納するキャッシュの番号を取得
+     *
+     * @param img 画像
+     * @return キャッシュの番号
+     */
+    private int stripe(Image img) {
+        int hash = System.identityHashCode(img);
+        return (hash ^ (hash >>> 16)) & (stripes - 1);
+    }
+
+    /**
+     * １つのサイズのキャッシュを作成する
+     *
+     * @return 分けたキャッシュ
+     */
+    private ScaledImageCache[] newStripes() {
+        ScaledImageCache[] created = new ScaledImageCache[stripes];
+        for (int i = 0; i < stripes; i++) {
+            created[i] = new ScaledImageCache();
+        }
+        return created;
+    }
+}
@@ -0,0 +1,118 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ImageObserver;
+import java.awt.image.ImageProducer;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 読み込みが終わるまで仮の画像として振る舞う画像
+ *
+ * 読み込み中でもマップに配置でき, {@code TableMap} は読み込みが終わるまで
+ * {@link #PLACEHOLDER_COLOR} で塗りつぶしたタイルを描画する.
+ * 読み込みが終わるとそのタイルだけを再描画する.
+ * 読み込みに失敗したときは仮の表示のままになる.
+ */
+public final class DeferredImage extends Image {
+    /**
+     * 読み込み中のタイルを塗りつぶす色
+     */
+    public static final Color PLACEHOLDER_COLOR = new Color(128, 128, 128, 64);
+
+    /**
+     * 読み込み中に {@link #getSource()} が返す画像
+     */
+    private static final BufferedImage PLACEHOLDER = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    /**
+     * 読み込み処理
+     */
+    private final CompletableFuture<? extends Image> future;
+
+    /**
+     * コンストラクタ
+     *
+     * @param future 読み込み処理
+     */
+    private DeferredImage(CompletableFuture<? extends Image> future) {
+        this.future = future;
+    }
+
+    /**
+     * 読み込み処理の結果を表す画像を作成する
+     *
+     * @param future 読み込み処理
+     * @return 作成した画像
+     */
+    public static DeferredImage of(CompletableFuture<? extends Image> future) {
+        return new DeferredImage(future);
+    }
+
+    /**
+     * 読み込みが終わっているかを判定
+     *
+     * @return 読み込みに成功していれば {@code true}
+     */
+    public boolean isReady() {
+        return future.isDone() && !future.isCompletedExceptionally();
+    }
+
+    /**
+     * 読み込みが終わったか失敗したかを判定
+     *
+     * @return 読み込み中でなければ {@code true}
+     */
+    public boolean isDone() {
+        return future.isDone();
+    }
+
+    /**
+     * 読み込んだ画像を取得
+     *
+     * @return 読み込んだ画像, 読み込み中または失敗したときは {@code null}
+     */
+    public Image get() {
+        return isReady() ? future.getNow(null) : null;
+    }
+
+    /**
+     * 読み込みが終わったか失敗したときに処理を実行する
+     *
+     * 既に終わっているときはすぐに実行する
+     *
+     * @param action 実行する処理, 読み込んだスレッドで呼ばれる
+     */
+    public void whenDone(Runnable action) {
+        future.whenComplete((img, e) -> action.run());
+    }
+
+    @Override
+    public int getWidth(ImageObserver observer) {
+        Image img = get();
+        return img == null ? -1 : img.getWidth(observer);
+    }
+
+    @Override
+    public int getHeight(ImageObserver observer) {
+        Image img = get();
+        return img == null ? -1 : img.getHeight(observer);
+    }
+
+    @Override
+    public ImageProducer getSource() {
+        Image img = get();
+        return (img == null ? PLACEHOLDER : img).getSource();
+    }
+
+    @Override
+    public Graphics getGraphics() {
+        throw new UnsupportedOperationException("読み込む画像には描画できない");
+    }
+
+    @Override
+    public Object getProperty(String name, ImageObserver observer) {
+        Image img = get();
+        return img == null ? UndefinedProperty : img.getProperty(name, observer);
+    }
+}
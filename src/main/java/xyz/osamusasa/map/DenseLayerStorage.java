@@ -0,0 +1,70 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * すべてのタイルの画像を配列で保持する記憶領域
+ *
+ * {@code レイヤー数 * 列数 * 行数} の参照を最初に確保する
+ */
+public class DenseLayerStorage implements LayerStorage {
+    /**
+     * 描画するイメージの配列
+     */
+    private final Image[][][] tiledImages;
+
+    /**
+     * 行数
+     */
+    private final int row;
+    /**
+     * 列数
+     */
+    private final int col;
+
+    /**
+     * コンストラクタ
+     *
+     * @param layer レイヤーの数
+     * @param row 行数
+     * @param col 列数
+     */
+    public DenseLayerStorage(int layer, int row, int col) {
+        this.row = row;
+        this.col = col;
+        tiledImages = new Image[layer][col][row];
+    }
+
+    @Override
+    public int getLayerCount() {
+        return tiledImages.length;
+    }
+
+    @Override
+    public int getCol() {
+        return col;
+    }
+
+    @Override
+    public int getRow() {
+        return row;
+    }
+
+    @Override
+    public Image get(int layer, int x, int y) {
+        return tiledImages[layer][x][y];
+    }
+
+    @Override
+    public void set(int layer, int x, int y, Image img) {
+        tiledImages[layer][x][y] = img;
+    }
+
+    @Override
+    public void fill(int layer, Image img) {
+        for (Image[] column: tiledImages[layer]) {
+            Arrays.fill(column, img);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+
+/**
+ * マップの上を自由に動く人物や物
+ *
+ * 位置と大きさはマップの座標 (タイル１枚が {@code unitWidth} x {@code unitHeight} の座標) で表す.
+ * 位置や画像は {@link EntityLayer} を通して変更する.
+ * 同じ画像を複数の {@code Entity} で共有でき, 縮尺済みの画像も共有される.
+ */
+public class Entity {
+    /**
+     * 描画する画像
+     */
+    private Image sprite;
+    /**
+     * 左上のx座標
+     */
+    private int x;
+    /**
+     * 左上のy座標
+     */
+    private int y;
+    /**
+     * 幅
+     */
+    private final int width;
+    /**
+     * 高さ
+     */
+    private final int height;
+
+    /**
+     * 追加されているレイヤー, 追加されていないときは {@code null}
+     */
+    EntityLayer layer;
+    /**
+     * 格納されているバケットの番号
+     */
+    int bucket;
+    /**
+     * バケットの中での位置
+     */
+    int slot;
+    /**
+     * レイヤーに追加された順番
+     */
+    long order;
+
+    /**
+     * コンストラクタ
+     *
+     * @param sprite 描画する画像
+     * @param x 左上のx座標
+     * @param y 左上のy座標
+     * @param width 幅
+     * @param height 高さ
+     */
+    public Entity(Image sprite, int x, int y, int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("大きさが不正: " + width + "x" + height);
+        }
+        this.sprite = sprite;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * 大きさは画像の大きさにする.
+     * 読み込み中の {@link DeferredImage} のように大きさがまだ分からない画像には,
+     * 大きさを指定するコンストラクタを使う
+     *
+     * @param sprite 描画する画像, 大きさが分かる画像
+     * @param x 左上のx座標
+     * @param y 左上のy座標
+     * @throws IllegalArgumentException 画像の大きさが分からないとき
+     */
+    public Entity(Image sprite, int x, int y) {
+        this(sprite, x, y, knownWidth(sprite), knownHeight(sprite));
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * {@code BitmapData} のタイルを画像にする. 同じタイルを使う {@code Entity} は同じ画像を共有する
+     *
+     * @param bitmapData タイルの画像
+     * @param tileX タイルのx座標
+     * @param tileY タイルのy座標
+     * @param x 左上のx座標
+     * @param y 左上のy座標
+     */
+    public Entity(BitmapData bitmapData, int tileX, int tileY, int x, int y) {
+        this(bitmapData.getTile(tileX, tileY), x, y);
+    }
+
+    /**
+     * 画像の幅を取得
+     *
+     * @param sprite 画像
+     * @return 画像の幅
+     * @throws IllegalArgumentException 幅が分からないとき
+     */
+    private static int knownWidth(Image sprite) {
+        int width = sprite.getWidth(null);
+        if (width < 0) {
+            throw new IllegalArgumentException("画像の大きさが分からない: " + sprite);
+        }
+        return width;
+    }
+
+    /**
+     * 画像の高さを取得
+     *
+     * @param sprite 画像
+     * @return 画像の高さ
+     * @throws IllegalArgumentException 高さが分からないとき
+     */
+    private static int knownHeight(Image sprite) {
+        int height = sprite.getHeight(null);
+        if (height < 0) {
+            throw new IllegalArgumentException("画像の大きさが分からない: " + sprite);
+        }
+        return height;
+    }
+
+    /**
+     * 描画する画像を取得
+     *
+     * @return 描画する画像
+     */
+    public Image getSprite() {
+        return sprite;
+    }
+
+    /**
+     * 左上のx座標を取得
+     *
+     * @return 左上のx座標
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * 左上のy座標を取得
+     *
+     * @return 左上のy座標
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * 幅を取得
+     *
+     * @return 幅
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * 高さを取得
+     *
+     * @return 高さ
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 追加されているレイヤーを取得
+     *
+     * @return 追加されているレイヤー, 追加されていないときは {@code null}
+     */
+    public EntityLayer getLayer() {
+        return layer;
+    }
+
+    /**
+     * 指定された点を含むかを判定
+     *
+     * @param px x座標
+     * @param py y座標
+     * @return 含むときは {@code true}
+     */
+    public boolean contains(int px, int py) {
+        return px >= x && px < x + width && py >= y && py < y + height;
+    }
+
+    /**
+     * 指定された範囲と重なるかを判定
+     *
+     * @param rx 範囲の左端のx座標
+     * @param ry 範囲の上端のy座標
+     * @param rw 範囲の幅
+     * @param rh 範囲の高さ
+     * @return 重なるときは {@code true}
+     */
+    public boolean intersects(int rx, int ry, int rw, int rh) {
+        return rx < x + width && x < rx + rw && ry < y + height && y < ry + rh;
+    }
+
+    /**
+     * 位置を設定する
+     *
+     * @param x 左上のx座標
+     * @param y 左上のy座標
+     */
+    void setLocation(int x, int y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    /**
+     * 描画する画像を設定する
+     *
+     * @param sprite 描画する画像
+     */
+    void setSprite(Image sprite) {
+        this.sprite = sprite;
+    }
+}
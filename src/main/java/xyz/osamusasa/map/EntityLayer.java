@@ -0,0 +1,345 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * マップの上の {@link Entity} を格子状のバケットに分けて保持する
+ *
+ * {@code Entity} は左上の位置を含むバケットに格納する.
+ * 範囲の検索は範囲と重なるバケットだけを調べるので, 全体の数ではなく範囲内の数に比例する時間で終わる.
+ * 移動してもバケットが変わらないときは位置を書き換えるだけで, 変わるときも２つのバケットだけを更新する.
+ * マップの外にある {@code Entity} は端のバケットに格納する.
+ */
+public final class EntityLayer {
+    /**
+     * 描画する順番, 下端が上にあるものから, 同じときは追加された順
+     */
+    static final Comparator<Entity> DRAW_ORDER = (a, b) -> {
+        int c = Integer.compare(a.getY() + a.getHeight(), b.getY() + b.getHeight());
+        return c != 0 ? c : Long.compare(a.order, b.order);
+    };
+
+    /**
+     * 変更された範囲を受け取る処理
+     */
+    interface ChangeSink {
+        /**
+         * 範囲の描画が変わったときに呼ばれる
+         *
+         * @param x 範囲の左端のx座標
+         * @param y 範囲の上端のy座標
+         * @param width 範囲の幅
+         * @param height 範囲の高さ
+         */
+        void changed(int x, int y, int width, int height);
+    }
+
+    /**
+     * バケット１つの幅
+     */
+    private final int bucketWidth;
+    /**
+     * バケット１つの高さ
+     */
+    private final int bucketHeight;
+    /**
+     * 横に並ぶバケットの数
+     */
+    private final int bucketCols;
+    /**
+     * 縦に並ぶバケットの数
+     */
+    private final int bucketRows;
+
+    /**
+     * バケット, まだ格納していないバケットは {@code null}
+     */
+    private final Entity[][] buckets;
+    /**
+     * それぞれのバケットに格納している数
+     */
+    private final int[] bucketSizes;
+
+    /**
+     * 格納している数
+     */
+    private int size;
+    /**
+     * 格納したことのある一番大きな幅
+     */
+    private int maxWidth;
+    /**
+     * 格納したことのある一番大きな高さ
+     */
+    private int maxHeight;
+    /**
+     * 次に追加する {@code Entity} の順番
+     */
+    private long nextOrder;
+
+    /**
+     * 変更された範囲を受け取る処理
+     */
+    private final ChangeSink sink;
+
+    /**
+     * コンストラクタ
+     *
+     * @param width マップの幅
+     * @param height マップの高さ
+     * @param bucketWidth バケット１つの幅
+     * @param bucketHeight バケット１つの高さ
+     * @param sink 変更された範囲を受け取る処理
+     */
+    EntityLayer(int width, int height, int bucketWidth, int bucketHeight, ChangeSink sink) {
+        this.bucketWidth = bucketWidth;
+        this.bucketHeight = bucketHeight;
+        this.bucketCols = Math.max(1, (width + bucketWidth - 1) / bucketWidth);
+        this.bucketRows = Math.max(1, (height + bucketHeight - 1) / bucketHeight);
+        this.buckets = new Entity[bucketCols * bucketRows][];
+        this.bucketSizes = new int[bucketCols * bucketRows];
+        this.sink = sink;
+    }
+
+    /**
+     * 格納している数を取得
+     *
+     * @return 格納している数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * {@code Entity} を追加する
+     *
+     * @param entity 追加する {@code Entity}
+     * @throws IllegalStateException 既にいずれかのレイヤーに追加されているとき
+     */
+    public void add(Entity entity) {
+        if (entity.layer != null) {
+            throw new IllegalStateException("既に追加されている");
+        }
+        entity.layer = this;
+        entity.order = nextOrder++;
+        maxWidth = Math.max(maxWidth, entity.getWidth());
+        maxHeight = Math.max(maxHeight, entity.getHeight());
+        insert(entity, bucketOf(entity.getX(), entity.getY()));
+        size++;
+        changed(entity);
+    }
+
+    /**
+     * {@code Entity} を取り除く
+     *
+     * @param entity 取り除く {@code Entity}
+     * @throws IllegalArgumentException このレイヤーに追加されていないとき
+     */
+    public void remove(Entity entity) {
+        checkOwner(entity);
+        delete(entity);
+        entity.layer = null;
+        size--;
+        changed(entity);
+    }
+
+    /**
+     * {@code Entity} を移動する
+     *
+     * @param entity 移動する {@code Entity}
+     * @param x 移動先の左上のx座標
+     * @param y 移動先の左上のy座標
+     * @throws IllegalArgumentException このレイヤーに追加されていないとき
+     */
+    public void move(Entity entity, int x, int y) {
+        checkOwner(entity);
+        if (x == entity.getX() && y == entity.getY()) {
+            return;
+        }
+        changed(entity);
+        int bucket = bucketOf(x, y);
+        if (bucket != entity.bucket) {
+            delete(entity);
+            insert(entity, bucket);
+        }
+        entity.setLocation(x, y);
+        changed(entity);
+    }
+
+    /**
+     * {@code Entity} の画像を変更する
+     *
+     * @param entity 変更する {@code Entity}
+     * @param sprite 新しい画像
+     * @throws IllegalArgumentException このレイヤーに追加されていないとき
+     */
+    public void setSprite(Entity entity, Image sprite) {
+        checkOwner(entity);
+        entity.setSprite(sprite);
+        changed(entity);
+    }
+
+    /**
+     * 指定された範囲と重なる {@code Entity} をすべて取得する
+     *
+     * @param x 範囲の左端のx座標
+     * @param y 範囲の上端のy座標
+     * @param width 範囲の幅
+     * @param height 範囲の高さ
+     * @param result 見つかった {@code Entity} を追加するリスト
+     */
+    public void query(int x, int y, int width, int height, List<? super Entity> result) {
+        if (size == 0 || width <= 0 || height <= 0) {
+            return;
+        }
+        //左上の位置で格納しているので, 左と上は格納したことのある一番大きな大きさだけ広げて調べる
+        int fromX = clampCol(Math.floorDiv(x - maxWidth + 1, bucketWidth));
+        int toX = clampCol(Math.floorDiv(x + width - 1, bucketWidth));
+        int fromY = clampRow(Math.floorDiv(y - maxHeight + 1, bucketHeight));
+        int toY = clampRow(Math.floorDiv(y + height - 1, bucketHeight));
+        for (int by = fromY; by <= toY; by++) {
+            for (int bx = fromX; bx <= toX; bx++) {
+                int b = by * bucketCols + bx;
+                Entity[] bucket = buckets[b];
+                for (int i = 0, n = bucketSizes[b]; i < n; i++) {
+                    if (bucket[i].intersects(x, y, width, height)) {
+                        result.add(bucket[i]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 指定された範囲と重なる {@code Entity} をすべて取得する
+     *
+     * @param area 範囲
+     * @param result 見つかった {@code Entity} を追加するリスト
+     */
+    public void query(Rectangle area, List<? super Entity> result) {
+        query(area.x, area.y, area.width, area.height, result);
+    }
+
+    /**
+     * 指定された点を含む {@code Entity} のうち一番手前に描画されるものを取得する
+     *
+     * @param x x座標
+     * @param y y座標
+     * @return 見つかった {@code Entity}, ないときは {@code null}
+     */
+    public Entity getEntityAt(int x, int y) {
+        if (size == 0) {
+            return null;
+        }
+        Entity found = null;
+        int fromX = clampCol(Math.floorDiv(x - maxWidth + 1, bucketWidth));
+        int toX = clampCol(Math.floorDiv(x, bucketWidth));
+        int fromY = clampRow(Math.floorDiv(y - maxHeight + 1, bucketHeight));
+        int toY = clampRow(Math.floorDiv(y, bucketHeight));
+        for (int by = fromY; by <= toY; by++) {
+            for (int bx = fromX; bx <= toX; bx++) {
+                int b = by * bucketCols + bx;
+                Entity[] bucket = buckets[b];
+                for (int i = 0, n = bucketSizes[b]; i < n; i++) {
+                    Entity e = bucket[i];
+                    if (e.contains(x, y) && (found == null || DRAW_ORDER.compare(e, found) > 0)) {
+                        found = e;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * バケットに {@code Entity} を格納する
+     *
+     * @param entity 格納する {@code Entity}
+     * @param b バケットの番号
+     */
+    private void insert(Entity entity, int b) {
+        Entity[] bucket = buckets[b];
+        int n = bucketSizes[b];
+        if (bucket == null) {
+            bucket = buckets[b] = new Entity[4];
+        } else if (n == bucket.length) {
+            bucket = buckets[b] = Arrays.copyOf(bucket, n * 2);
+        }
+        bucket[n] = entity;
+        bucketSizes[b] = n + 1;
+        entity.bucket = b;
+        entity.slot = n;
+    }
+
+    /**
+     * バケットから {@code Entity} を取り除く
+     *
+     * バケットの最後の {@code Entity} を空いた位置に移す
+     *
+     * @param entity 取り除く {@code Entity}
+     */
+    private void delete(Entity entity) {
+        int b = entity.bucket;
+        Entity[] bucket = buckets[b];
+        int last = --bucketSizes[b];
+        Entity moved = bucket[last];
+        bucket[entity.slot] = moved;
+        moved.slot = entity.slot;
+        bucket[last] = null;
+    }
+
+    /**
+     * 指定された位置を含むバケットの番号を取得
+     *
+     * @param x x座標
+     * @param y y座標
+     * @return バケットの番号
+     */
+    private int bucketOf(int x, int y) {
+        return clampRow(Math.floorDiv(y, bucketHeight)) * bucketCols + clampCol(Math.floorDiv(x, bucketWidth));
+    }
+
+    /**
+     * バケットの列を範囲内に収める
+     *
+     * @param bx バケットの列
+     * @return 範囲内に収めた列
+     */
+    private int clampCol(int bx) {
+        return Math.max(0, Math.min(bx, bucketCols - 1));
+    }
+
+    /**
+     * バケットの行を範囲内に収める
+     *
+     * @param by バケットの行
+     * @return 範囲内に収めた行
+     */
+    private int clampRow(int by) {
+        return Math.max(0, Math.min(by, bucketRows - 1));
+    }
+
+    /**
+     * {@code Entity} がこのレイヤーに追加されているかを確認する
+     *
+     * @param entity 確認する {@code Entity}
+     * @throws IllegalArgumentException このレイヤーに追加されていないとき
+     */
+    private void checkOwner(Entity entity) {
+        if (entity.layer != this) {
+            throw new IllegalArgumentException("このレイヤーに追加されていない");
+        }
+    }
+
+    /**
+     * {@code Entity} の範囲の描画が変わったことを通知する
+     *
+     * @param entity 変更された {@code Entity}
+     */
+    private void changed(Entity entity) {
+        sink.changed(entity.getX(), entity.getY(), entity.getWidth(), entity.getHeight());
+    }
+}
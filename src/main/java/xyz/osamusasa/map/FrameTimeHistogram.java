@@ -0,0 +1,115 @@
+package xyz.osamusasa.map;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * フレームの描画時間のヒストグラム
+ *
+ * 描画時間を２のべき乗ごとの区間に数える.
+ * 記録はロックを使わず, 別のスレッドから同時に読み出せる.
+ */
+public final class FrameTimeHistogram {
+    /**
+     * 区間の数
+     */
+    private static final int BUCKETS = 64;
+
+    /**
+     * 区間ごとの回数
+     *
+     * 区間 {@code i} は {@code [2^(i-1), 2^i)} ナノ秒
+     */
+    private final AtomicLongArray counts;
+    /**
+     * 合計の時間と回数と最大の時間
+     */
+    private final AtomicLongArray totals;
+
+    /**
+     * コンストラクタ
+     */
+    public FrameTimeHistogram() {
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.totals = new AtomicLongArray(3);
+    }
+
+    /**
+     * 描画時間を記録する
+     *
+     * @param nanos 描画時間 (ナノ秒)
+     */
+    public void record(long nanos) {
+        nanos = Math.max(0, nanos);
+        counts.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos)));
+        totals.addAndGet(0, nanos);
+        totals.incrementAndGet(1);
+        long max;
+        while ((max = totals.get(2)) < nanos && !totals.compareAndSet(2, max, nanos)) {
+            //他のスレッドが更新したのでやり直す
+        }
+    }
+
+    /**
+     * 記録した回数を取得
+     *
+     * @return 記録した回数
+     */
+    public long getCount() {
+        return totals.get(1);
+    }
+
+    /**
+     * 平均の描画時間を取得
+     *
+     * @return 平均の描画時間 (ナノ秒), 記録がないときは０
+     */
+    public double getMeanNanos() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) totals.get(0) / count;
+    }
+
+    /**
+     * 最大の描画時間を取得
+     *
+     * @return 最大の描画時間 (ナノ秒)
+     */
+    public long getMaxNanos() {
+        return totals.get(2);
+    }
+
+    /**
+     * 指定された割合の記録がそれ以下になる描画時間を取得
+     *
+     * 区間の上端を返すので実際の値より最大で２倍大きい
+     *
+     * @param percentile 割合 ({@code 0.0} から {@code 1.0})
+     * @return 描画時間 (ナノ秒), 記録がないときは０
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * count);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(i == 0 ? 0 : 1L << i, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * 記録を消去する
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        for (int i = 0; i < totals.length(); i++) {
+            totals.set(i, 0);
+        }
+    }
+}
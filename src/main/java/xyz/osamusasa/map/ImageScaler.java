@@ -0,0 +1,27 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * 描画するサイズに縮尺した画像を提供する
+ */
+interface ImageScaler {
+    /**
+     * 指定されたサイズに縮尺した画像を取得する
+     *
+     * @param img 元の画像
+     * @param w 描画する幅
+     * @param h 描画する高さ
+     * @return 縮尺済みの画像, サイズが０以下のときは {@code null}
+     */
+    BufferedImage get(Image img, int w, int h);
+
+    /**
+     * 画像の平均の色を取得する
+     *
+     * @param img 元の画像
+     * @return 平均の色
+     */
+    Color getAverageColor(Image img);
+}
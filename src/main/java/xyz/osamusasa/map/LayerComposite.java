@@ -0,0 +1,173 @@
+package xyz.osamusasa.map;
+
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 静的なレイヤーを焼き付けた画像のキャッシュ
+ *
+ * マップを複数のタイルからなるブロックに分け, ブロックごとに焼き付けた画像を保持する.
+ * 拡大倍率が変わるとすべてのブロックを破棄し, タイルが変更されるとそのタイルを含むブロックを破棄する.
+ * 最近使われていないブロックから破棄し, 保持するブロックの数を制限する.
+ */
+final class LayerComposite {
+    /**
+     * １つのブロックの一辺の最大のピクセル数
+     */
+    private static final int BLOCK_PIXELS = 512;
+    /**
+     * 保持する最大のブロックの数
+     */
+    private static final int MAX_BLOCKS = 128;
+
+    /**
+     * 焼き付けたときのタイル１枚の幅
+     */
+    private int unitWidth;
+    /**
+     * 焼き付けたときのタイル１枚の高さ
+     */
+    private int unitHeight;
+    /**
+     * １つのブロックの列数
+     */
+    private int blockCols;
+    /**
+     * １つのブロックの行数
+     */
+    private int blockRows;
+
+    /**
+     * ブロックの位置から焼き付けた画像への対応
+     */
+    private final Map<Long, BufferedImage> blocks;
+
+    /**
+     * コンストラクタ
+     */
+    LayerComposite() {
+        this.unitWidth = -1;
+        this.unitHeight = -1;
+        this.blocks = new LinkedHashMap<Long, BufferedImage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+                return size() > MAX_BLOCKS;
+            }
+        };
+    }
+
+    /**
+     * タイル１枚の大きさを設定する
+     *
+     * 前回と異なる大きさが指定されたときはすべてのブロックを破棄する
+     *
+     * @param w 描画されるときのタイル１枚の幅
+     * @param h 描画されるときのタイル１枚の高さ
+     */
+    void resize(int w, int h) {
+        if (w == unitWidth && h == unitHeight) {
+            return;
+        }
+        invalidate();
+        unitWidth = w;
+        unitHeight = h;
+        blockCols = Math.max(1, BLOCK_PIXELS / w);
+        blockRows = Math.max(1, BLOCK_PIXELS / h);
+    }
+
+    /**
+     * １つのブロックの列数を取得
+     *
+     * @return １つのブロックの列数
+     */
+    int getBlockCols() {
+        return blockCols;
+    }
+
+    /**
+     * １つのブロックの行数を取得
+     *
+     * @return １つのブロックの行数
+     */
+    int getBlockRows() {
+        return blockRows;
+    }
+
+    /**
+     * 焼き付けた画像を取得
+     *
+     * @param bx ブロックのx座標
+     * @param by ブロックのy座標
+     * @return 焼き付けた画像, まだ焼き付けていないときは {@code null}
+     */
+    BufferedImage get(int bx, int by) {
+        return blocks.get(key(bx, by));
+    }
+
+    /**
+     * 焼き付けた画像を保持する
+     *
+     * @param bx ブロックのx座標
+     * @param by ブロックのy座標
+     * @param img 焼き付けた画像
+     */
+    void put(int bx, int by, BufferedImage img) {
+        blocks.put(key(bx, by), img);
+    }
+
+    /**
+     * 指定された範囲のタイルを含むブロックを破棄する
+     *
+     * @param x 範囲の左端の列
+     * @param y 範囲の上端の行
+     * @param width 範囲の列数
+     * @param height 範囲の行数
+     */
+    void invalidate(int x, int y, int width, int height) {
+        if (blocks.isEmpty() || width <= 0 || height <= 0) {
+            return;
+        }
+        int bx0 = x / blockCols;
+        int by0 = y / blockRows;
+        int bx1 = (x + width - 1) / blockCols;
+        int by1 = (y + height - 1) / blockRows;
+
+        if ((long) (bx1 - bx0 + 1) * (by1 - by0 + 1) > blocks.size()) {
+            Iterator<Long> it = blocks.keySet().iterator();
+            while (it.hasNext()) {
+                long k = it.next();
+                int bx = (int) (k >> 32);
+                int by = (int) k;
+                if (bx0 <= bx && bx <= bx1 && by0 <= by && by <= by1) {
+                    it.remove();
+                }
+            }
+        } else {
+            for (int by = by0; by <= by1; by++) {
+                for (int bx = bx0; bx <= bx1; bx++) {
+                    blocks.remove(key(bx, by));
+                }
+            }
+        }
+    }
+
+    /**
+     * すべてのブロックを破棄する
+     */
+    void invalidate() {
+        blocks.clear();
+    }
+
+    /**
+     * ブロックの位置からキーを作成する
+     *
+     * @param bx ブロックのx座標
+     * @param by ブロックのy座標
+     * @return キー
+     */
+    private static long key(int bx, int by) {
+        return ((long) bx << 32) | (by & 0xFFFFFFFFL);
+    }
+}
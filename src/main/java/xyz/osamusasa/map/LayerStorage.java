@@ -0,0 +1,59 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+
+/**
+ * {@code TableMap} のタイルの画像を保持する記憶領域
+ *
+ * レイヤー, x座標(列), y座標(行) で指定されたタイルの画像を読み書きする
+ */
+public interface LayerStorage {
+    /**
+     * レイヤーの数を取得
+     *
+     * @return レイヤーの数
+     */
+    int getLayerCount();
+
+    /**
+     * 列数を取得
+     *
+     * @return 列数
+     */
+    int getCol();
+
+    /**
+     * 行数を取得
+     *
+     * @return 行数
+     */
+    int getRow();
+
+    /**
+     * 指定されたタイルの画像を取得する
+     *
+     * @param layer レイヤー
+     * @param x x座標
+     * @param y y座標
+     * @return 指定されたタイルの画像, 画像がないときは {@code null}
+     */
+    Image get(int layer, int x, int y);
+
+    /**
+     * 指定されたタイルに画像をセットする
+     *
+     * @param layer レイヤー
+     * @param x x座標
+     * @param y y座標
+     * @param img セットする画像, {@code null} のときは画像を取り除く
+     */
+    void set(int layer, int x, int y, Image img);
+
+    /**
+     * 指定されたレイヤーのすべてのタイルを指定された画像で埋める
+     *
+     * @param layer レイヤー
+     * @param img 埋める画像, {@code null} のときはすべての画像を取り除く
+     */
+    void fill(int layer, Image img);
+}
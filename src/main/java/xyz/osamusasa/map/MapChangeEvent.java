@@ -0,0 +1,140 @@
+package xyz.osamusasa.map;
+
+/**
+ * 変更されたタイルのレイヤーと範囲
+ *
+ * 通知のたびに作成せず同じインスタンスを使い回すので, 値は {@link MapChangeListener} の呼び出しの中でだけ有効
+ */
+public final class MapChangeEvent {
+    /**
+     * 変更された一番下のレイヤー
+     */
+    private int fromLayer;
+    /**
+     * 変更された一番上のレイヤー
+     */
+    private int toLayer;
+    /**
+     * 範囲の左端の列
+     */
+    private int x;
+    /**
+     * 範囲の上端の行
+     */
+    private int y;
+    /**
+     * 範囲の列数
+     */
+    private int width;
+    /**
+     * 範囲の行数
+     */
+    private int height;
+
+    /**
+     * コンストラクタ
+     */
+    MapChangeEvent() {}
+
+    /**
+     * 変更された一番下のレイヤーを取得
+     *
+     * @return 変更された一番下のレイヤー
+     */
+    public int getFromLayer() {
+        return fromLayer;
+    }
+
+    /**
+     * 変更された一番上のレイヤーを取得
+     *
+     * @return 変更された一番上のレイヤー
+     */
+    public int getToLayer() {
+        return toLayer;
+    }
+
+    /**
+     * 範囲の左端の列を取得
+     *
+     * @return 範囲の左端の列
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * 範囲の上端の行を取得
+     *
+     * @return 範囲の上端の行
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * 範囲の列数を取得
+     *
+     * @return 範囲の列数
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * 範囲の行数を取得
+     *
+     * @return 範囲の行数
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * 指定されたレイヤーが変更されたかを判定
+     *
+     * @param layer レイヤー
+     * @return 変更されたレイヤーの範囲に含まれるときは {@code true}
+     */
+    public boolean containsLayer(int layer) {
+        return fromLayer <= layer && layer <= toLayer;
+    }
+
+    /**
+     * 指定されたタイルが変更された範囲に含まれるかを判定
+     *
+     * @param cx タイルのx座標
+     * @param cy タイルのy座標
+     * @return 含まれるときは {@code true}
+     */
+    public boolean contains(int cx, int cy) {
+        return cx >= x && cx < x + width && cy >= y && cy < y + height;
+    }
+
+    /**
+     * 値を設定する
+     *
+     * @param fromLayer 変更された一番下のレイヤー
+     * @param toLayer 変更された一番上のレイヤー
+     * @param x 範囲の左端の列
+     * @param y 範囲の上端の行
+     * @param width 範囲の列数
+     * @param height 範囲の行数
+     * @return このインスタンス
+     */
+    MapChangeEvent set(int fromLayer, int toLayer, int x, int y, int width, int height) {
+        this.fromLayer = fromLayer;
+        this.toLayer = toLayer;
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "MapChangeEvent[layer=" + fromLayer + ".." + toLayer
+                + ",x=" + x + ",y=" + y + ",width=" + width + ",height=" + height + "]";
+    }
+}
@@ -0,0 +1,16 @@
+package xyz.osamusasa.map;
+
+/**
+ * マップのタイルの変更を受け取るリスナー
+ */
+public interface MapChangeListener {
+    /**
+     * タイルの画像が変更されたときに変更したスレッドで呼ばれる
+     *
+     * {@link TableMap#edit(java.util.function.Consumer)} の中の変更は, 終わったときに全体を囲む範囲で１回だけ呼ばれる
+     *
+     * @param map 変更されたマップ
+     * @param event 変更された範囲, 呼び出しの外で保持してはならない
+     */
+    void mapChanged(TableMap map, MapChangeEvent event);
+}
@@ -0,0 +1,398 @@
+package xyz.osamusasa.map;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * メモリマップしたファイルにタイルIDを保持する記憶領域
+ *
+ * タイルIDはヒープではなくファイルに置くので, マップが大きくてもヒープの使用量は増えない.
+ * ファイルはレイヤーごとに一辺 {@code 2^CHUNK_SHIFT} タイルのチャンクに分けて並べてあり,
+ * 表示範囲のタイルは近いページにまとまる.
+ * ファイルは一定の大きさの区間ごとに, 初めて参照されたときにマップする.
+ * ページはOSが必要になったときに読み込む.
+ *
+ * <pre>
+ * int   マジックナンバー "TMMP"
+ * int   バージョン
+ * int   レイヤーの数, 行数, 列数, チャンクの一辺のタイル数の２の対数
+ * ヘッダーは {@value #HEADER_BYTES} バイトで, その後にチャンクが並ぶ
+ * </pre>
+ */
+public class MappedTileIdLayerStorage extends TileIdLayerStorage implements Closeable {
+    /**
+     * マジックナンバー
+     */
+    private static final int MAGIC = 0x544D4D50;
+    /**
+     * 形式のバージョン
+     */
+    private static final int VERSION = 2;
+
+    /**
+     * チャンクの一辺のタイル数の２の対数
+     *
+     * チャンク１つは {@code 64 * 64 * 2} バイトで２ページになる
+     */
+    public static final int CHUNK_SHIFT = 6;
+
+    /**
+     * ヘッダーのバイト数
+     *
+     * チャンク１つ分とり, すべてのチャンクがチャンクの大きさの倍数の位置から始まるようにする.
+     * 区間の大きさもチャンクの大きさの倍数なので, チャンクが区間の境界をまたぐことはない
+     */
+    private static final int HEADER_BYTES = Short.BYTES << (CHUNK_SHIFT * 2);
+
+    /**
+     * １度にマップする区間のバイト数の２の対数
+     */
+    private static final int SEGMENT_SHIFT = 30;
+
+    /**
+     * 区間のバイト数の２の対数の最小値, チャンク１つのバイト数
+     */
+    static final int MIN_SEGMENT_SHIFT = 1 + CHUNK_SHIFT * 2;
+
+    /**
+     * ファイルのチャンネル
+     */
+    private final FileChannel channel;
+    /**
+     * １度にマップする区間のバイト数の２の対数
+     */
+    private final int segmentShift;
+
+    /**
+     * レイヤーの数
+     */
+    private final int layer;
+    /**
+     * 行数
+     */
+    private final int row;
+    /**
+     * 列数
+     */
+    private final int col;
+
+    /**
+     * チャンク内の座標を取り出すマスク
+     */
+    private final int chunkMask;
+    /**
+     * 横方向のチャンクの数
+     */
+    private final int chunksX;
+    /**
+     * １つのレイヤーのチャンクの数
+     */
+    private final long chunksPerLayer;
+
+    /**
+     * マップした区間, まだマップしていない区間は {@code null}
+     */
+    private final AtomicReferenceArray<MappedByteBuffer> segments;
+
+    /**
+     * コンストラクタ
+     *
+     * @param channel ファイルのチャンネル
+     * @param segmentShift １度にマップする区間のバイト数の２の対数
+     * @param layer レイヤーの数
+     * @param row 行数
+     * @param col 列数
+     * @param palette タイルIDと画像の対応表
+     */
+    private MappedTileIdLayerStorage(FileChannel channel, int segmentShift, int layer, int row, int col, TilePalette palette) {
+        super(palette);
+        this.channel = channel;
+        this.segmentShift = segmentShift;
+        this.layer = layer;
+        this.row = row;
+        this.col = col;
+        this.chunkMask = (1 << CHUNK_SHIFT) - 1;
+        this.chunksX = (col + chunkMask) >> CHUNK_SHIFT;
+        this.chunksPerLayer = (long) chunksX * ((row + chunkMask) >> CHUNK_SHIFT);
+        this.segments = new AtomicReferenceArray<>((int) ((fileSize() - 1 >> segmentShift) + 1));
+    }
+
+    /**
+     * 新しいファイルを作成して記憶領域を開く
+     *
+     * ファイルはすべてのタイルが {@link TilePalette#EMPTY} の状態になる
+     *
+     * @param path 作成するファイル
+     * @param layer レイヤーの数
+     * @param row 行数
+     * @param col 列数
+     * @param palette タイルIDと画像の対応表
+     * @return 開いた記憶領域
+     * @throws IOException ファイルを作成できないとき
+     */
+    public static MappedTileIdLayerStorage create(Path path, int layer, int row, int col, TilePalette palette) throws IOException {
+        return create(path, layer, row, col, palette, SEGMENT_SHIFT);
+    }
+
+    /**
+     * 区間の大きさを指定して, 新しいファイルを作成して記憶領域を開く
+     *
+     * @param path 作成するファイル
+     * @param layer レイヤーの数
+     * @param row 行数
+     * @param col 列数
+     * @param palette タイルIDと画像の対応表
+     * @param segmentShift １度にマップする区間のバイト数の２の対数, {@link #MIN_SEGMENT_SHIFT} 以上
+     * @return 開いた記憶領域
+     * @throws IOException ファイルを作成できないとき
+     */
+    static MappedTileIdLayerStorage create(Path path, int layer, int row, int col, TilePalette palette, int segmentShift) throws IOException {
+        if (layer <= 0 || row <= 0 || col <= 0) {
+            throw new IllegalArgumentException("大きさが不正: " + layer + "x" + row + "x" + col);
+        }
+        if (segmentShift < MIN_SEGMENT_SHIFT || segmentShift > SEGMENT_SHIFT) {
+            throw new IllegalArgumentException("区間の大きさが不正: " + segmentShift);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            MappedTileIdLayerStorage storage = new MappedTileIdLayerStorage(channel, segmentShift, layer, row, col, palette);
+            ByteBuffer header = ByteBuffer.allocate(6 * Integer.BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(layer).putInt(row).putInt(col).putInt(CHUNK_SHIFT);
+            header.flip();
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            //最後の１バイトを書いて大きさを決める. 途中は書かないので疎なファイルになる
+            channel.write(ByteBuffer.allocate(1), storage.fileSize() - 1);
+            return storage;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 既存のファイルを記憶領域として開く
+     *
+     * @param path 開くファイル
+     * @param palette タイルIDと画像の対応表
+     * @return 開いた記憶領域
+     * @throws IOException ファイルを開けないとき, または形式が正しくないとき
+     */
+    public static MappedTileIdLayerStorage open(Path path, TilePalette palette) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(6 * Integer.BYTES);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("ヘッダーが足りない: " + path);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException("タイルIDのファイルではない: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException("未対応のバージョン: " + version);
+            }
+            int layer = header.getInt();
+            int row = header.getInt();
+            int col = header.getInt();
+            int chunkShift = header.getInt();
+            if (chunkShift != CHUNK_SHIFT || layer <= 0 || row <= 0 || col <= 0) {
+                throw new IOException("ヘッダーが不正: " + path);
+            }
+            MappedTileIdLayerStorage storage = new MappedTileIdLayerStorage(channel, SEGMENT_SHIFT, layer, row, col, palette);
+            if (channel.size() < storage.fileSize()) {
+                throw new IOException("ファイルが短い: " + path);
+            }
+            return storage;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public int getLayerCount() {
+        return layer;
+    }
+
+    @Override
+    public int getCol() {
+        return col;
+    }
+
+    @Override
+    public int getRow() {
+        return row;
+    }
+
+    @Override
+    public int getTileId(int layer, int x, int y) {
+        long offset = offset(layer, x, y);
+        return segment(offset).getShort((int) (offset & segmentMask())) & 0xFFFF;
+    }
+
+    @Override
+    public void setTileId(int layer, int x, int y, int id) {
+        long offset = offset(layer, x, y);
+        segment(offset).putShort((int) (offset & segmentMask()), toShort(id));
+    }
+
+    @Override
+    public void fillTileId(int layer, int id) {
+        checkLayer(layer);
+        short value = toShort(id);
+        int chunkCells = 1 << (CHUNK_SHIFT * 2);
+        for (long chunk = 0; chunk < chunksPerLayer; chunk++) {
+            long offset = chunkOffset(layer, chunk);
+            MappedByteBuffer buf = segment(offset);
+            int base = (int) (offset & segmentMask());
+            for (int i = 0; i < chunkCells; i++) {
+                buf.putShort(base + i * Short.BYTES, value);
+            }
+        }
+    }
+
+    /**
+     * 変更をファイルに書き出す
+     */
+    public void force() {
+        for (int i = 0; i < segments.length(); i++) {
+            MappedByteBuffer buf = segments.get(i);
+            if (buf != null) {
+                buf.force();
+            }
+        }
+    }
+
+    /**
+     * 変更をファイルに書き出してチャンネルを閉じる
+     *
+     * マップした区間はGCで回収されたときに解放される
+     *
+     * @throws IOException 閉じられないとき
+     */
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    /**
+     * ファイル全体のバイト数を取得
+     *
+     * @return ファイル全体のバイト数
+     */
+    private long fileSize() {
+        return HEADER_BYTES + layer * chunksPerLayer * (Short.BYTES << (CHUNK_SHIFT * 2));
+    }
+
+    /**
+     * 指定されたチャンクのファイル内の位置を取得
+     *
+     * @param layer レイヤー
+     * @param chunk レイヤー内のチャンクの番号
+     * @return ファイル内の位置
+     */
+    private long chunkOffset(int layer, long chunk) {
+        return HEADER_BYTES + ((layer * chunksPerLayer + chunk) << (CHUNK_SHIFT * 2)) * Short.BYTES;
+    }
+
+    /**
+     * 指定されたタイルのファイル内の位置を取得
+     *
+     * @param layer レイヤー
+     * @param x x座標
+     * @param y y座標
+     * @return ファイル内の位置
+     */
+    private long offset(int layer, int x, int y) {
+        checkLayer(layer);
+        if (x < 0 || x >= col || y < 0 || y >= row) {
+            throw new ArrayIndexOutOfBoundsException("(" + x + ", " + y + ")");
+        }
+        long chunk = (long) (y >> CHUNK_SHIFT) * chunksX + (x >> CHUNK_SHIFT);
+        int cell = ((y & chunkMask) << CHUNK_SHIFT) | (x & chunkMask);
+        return chunkOffset(layer, chunk) + cell * Short.BYTES;
+    }
+
+    /**
+     * ファイル内の位置を含む区間を取得する
+     *
+     * まだマップしていないときはここでマップする
+     *
+     * @param offset ファイル内の位置
+     * @return 区間
+     */
+    private MappedByteBuffer segment(long offset) {
+        int index = (int) (offset >> segmentShift);
+        MappedByteBuffer buf = segments.get(index);
+        return buf != null ? buf : mapSegment(index);
+    }
+
+    /**
+     * 区間をマップする
+     *
+     * @param index 区間の番号
+     * @return マップした区間
+     */
+    private synchronized MappedByteBuffer mapSegment(int index) {
+        MappedByteBuffer buf = segments.get(index);
+        if (buf == null) {
+            long start = (long) index << segmentShift;
+            long size = Math.min(1L << segmentShift, fileSize() - start);
+            try {
+                buf = channel.map(FileChannel.MapMode.READ_WRITE, start, size);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            segments.set(index, buf);
+        }
+        return buf;
+    }
+
+    /**
+     * 区間内の位置を取り出すマスクを取得
+     *
+     * @return マスク
+     */
+    private long segmentMask() {
+        return (1L << segmentShift) - 1;
+    }
+
+    /**
+     * レイヤーが範囲内であるかを検査する
+     *
+     * @param layer レイヤー
+     */
+    private void checkLayer(int layer) {
+        if (layer < 0 || layer >= this.layer) {
+            throw new ArrayIndexOutOfBoundsException("layer: " + layer);
+        }
+    }
+
+    /**
+     * タイルIDをファイルに格納する値に変換する
+     *
+     * @param id タイルID
+     * @return ファイルに格納する値
+     * @throws IllegalArgumentException タイルIDが範囲外のとき
+     */
+    private static short toShort(int id) {
+        if (id < 0 || id > ArrayTileIdLayerStorage.MAX_ID) {
+            throw new IllegalArgumentException("タイルIDが範囲外: " + id);
+        }
+        return (short) id;
+    }
+}
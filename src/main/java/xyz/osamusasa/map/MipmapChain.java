@@ -0,0 +1,177 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 画像を縦横半分ずつに縮小した画像の列
+ *
+ * レベル {@code n} の画像は元の画像の {@code 1/2^n} の大きさで, 必要になったときに作成する.
+ * 元の画像 (レベル０) は保持しない.
+ */
+final class MipmapChain {
+    /**
+     * 元の画像の幅
+     */
+    private final int width;
+    /**
+     * 元の画像の高さ
+     */
+    private final int height;
+
+    /**
+     * レベル１以降の画像
+     */
+    private final List<BufferedImage> levels;
+
+    /**
+     * 元の画像の平均の色
+     */
+    private Color averageColor;
+
+    /**
+     * コンストラクタ
+     *
+     * @param source 元の画像
+     */
+    MipmapChain(Image source) {
+        this.width = source.getWidth(null);
+        this.height = source.getHeight(null);
+        this.levels = new ArrayList<>();
+        this.levels.add(halve(toArgb(source)));
+    }
+
+    /**
+     * 指定されたレベルの画像を取得する
+     *
+     * @param level レベル, １以上
+     * @return 指定されたレベルの画像
+     */
+    BufferedImage getLevel(int level) {
+        if (level < 1 || level >= getLevelCount()) {
+            throw new IndexOutOfBoundsException("level: " + level);
+        }
+        while (levels.size() < level) {
+            levels.add(halve(levels.get(levels.size() - 1)));
+        }
+        return levels.get(level - 1);
+    }
+
+    /**
+     * レベルの数を取得する
+     *
+     * 最後のレベルの画像は１ピクセル四方になる
+     *
+     * @return 元の画像を含むレベルの数
+     */
+    int getLevelCount() {
+        int n = 1;
+        for (int s = Math.max(width, height); s > 1; s >>= 1) {
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * 指定された大きさ以上で一番小さいレベルを取得する
+     *
+     * @param w 描画する幅
+     * @param h 描画する高さ
+     * @return レベル, 元の画像を使うべきときは０
+     */
+    int getLevelFor(int w, int h) {
+        int level = 0;
+        int lw = width;
+        int lh = height;
+        while (level + 1 < getLevelCount() && Math.max(1, lw / 2) >= w && Math.max(1, lh / 2) >= h) {
+            level++;
+            lw = Math.max(1, lw / 2);
+            lh = Math.max(1, lh / 2);
+        }
+        return level;
+    }
+
+    /**
+     * 元の画像の平均の色を取得する
+     *
+     * @return 平均の色
+     */
+    Color getAverageColor() {
+        if (averageColor == null) {
+            int count = getLevelCount();
+            BufferedImage last = count > 1 ? getLevel(count - 1) : levels.get(0);
+            averageColor = new Color(last.getRGB(0, 0), true);
+        }
+        return averageColor;
+    }
+
+    /**
+     * 画像を縦横半分の大きさに縮小する
+     *
+     * 縮小後の１ピクセルに対応する範囲の色をアルファ値で重み付けして平均する
+     *
+     * @param src 縮小する画像
+     * @return 縮小した画像
+     */
+    private static BufferedImage halve(BufferedImage src) {
+        int sw = src.getWidth();
+        int sh = src.getHeight();
+        int dw = Math.max(1, sw / 2);
+        int dh = Math.max(1, sh / 2);
+        int[] in = src.getRGB(0, 0, sw, sh, null, 0, sw);
+        int[] out = new int[dw * dh];
+
+        for (int dy = 0; dy < dh; dy++) {
+            int y0 = dy * sh / dh;
+            int y1 = (dy + 1) * sh / dh;
+            for (int dx = 0; dx < dw; dx++) {
+                int x0 = dx * sw / dw;
+                int x1 = (dx + 1) * sw / dw;
+                long a = 0;
+                long r = 0;
+                long g = 0;
+                long b = 0;
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        int p = in[y * sw + x];
+                        int pa = p >>> 24;
+                        a += pa;
+                        r += ((p >> 16) & 0xFF) * pa;
+                        g += ((p >> 8) & 0xFF) * pa;
+                        b += (p & 0xFF) * pa;
+                    }
+                }
+                int n = (x1 - x0) * (y1 - y0);
+                out[dy * dw + dx] = a == 0 ? 0 : (int) (
+                        (a / n) << 24
+                        | (r / a) << 16
+                        | (g / a) << 8
+                        | (b / a)
+                );
+            }
+        }
+
+        BufferedImage dst = new BufferedImage(dw, dh, BufferedImage.TYPE_INT_ARGB);
+        dst.setRGB(0, 0, dw, dh, out, 0, dw);
+        return dst;
+    }
+
+    /**
+     * 画像を {@code TYPE_INT_ARGB} の {@code BufferedImage} として取得する
+     *
+     * @param img 画像
+     * @return 変換した画像
+     */
+    private static BufferedImage toArgb(Image img) {
+        if (img instanceof BufferedImage) {
+            return (BufferedImage) img;
+        }
+        BufferedImage bimg = new BufferedImage(img.getWidth(null), img.getHeight(null), BufferedImage.TYPE_INT_ARGB);
+        Graphics g = bimg.getGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return bimg;
+    }
+}
@@ -0,0 +1,465 @@
+package xyz.osamusasa.map;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * タイルの上下左右の移動で通れるタイルをたどる経路を A* で求める
+ *
+ * 通れないタイルの表と, 左右や上下がループしているかを持つ.
+ * 探索に使う配列はこのオブジェクトが持ち, 同時に探索している数だけ作って再利用する.
+ * 未処理のタイルは {@code long} の二分ヒープで管理するので, １回の探索で確保するのは結果の配列だけになる.
+ * 探索に使う配列はこのオブジェクトと一緒に解放される.
+ * 表を変更していない間は複数のスレッドから同時に探索できる.
+ * タイルは {@code y * 列数 + x} の番号で表す.
+ */
+public final class Pathfinder {
+    /**
+     * 上下左右の移動のx方向
+     */
+    private static final int[] DX = {1, -1, 0, 0};
+    /**
+     * 上下左右の移動のy方向
+     */
+    private static final int[] DY = {0, 0, 1, -1};
+
+    /**
+     * 行数
+     */
+    private final int row;
+    /**
+     * 列数
+     */
+    private final int col;
+    /**
+     * 通れないタイル
+     */
+    private final boolean[] blocked;
+    /**
+     * 使っていない探索に使う配列
+     */
+    private final ConcurrentLinkedQueue<Scratch> scratches = new ConcurrentLinkedQueue<>();
+    /**
+     * 上下がループしてるか
+     */
+    private boolean isConnectUpDown;
+    /**
+     * 左右がループしてるか
+     */
+    private boolean isConnectLeftRight;
+
+    /**
+     * コンストラクタ
+     *
+     * すべてのタイルを通れるようにする
+     *
+     * @param row 行数
+     * @param col 列数
+     */
+    public Pathfinder(int row, int col) {
+        if (row <= 0 || col <= 0 || (long) row * col > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("大きさが不正: " + row + "x" + col);
+        }
+        this.row = row;
+        this.col = col;
+        this.blocked = new boolean[row * col];
+    }
+
+    /**
+     * マップの指定されたレイヤーに画像のあるタイルを通れないタイルにした {@code Pathfinder} を作成する
+     *
+     * {@code BitmapTile} のときはマップのループも引き継ぐ
+     *
+     * @param map マップ
+     * @param layer 通れないタイルを表すレイヤー
+     * @return 作成した {@code Pathfinder}
+     */
+    public static Pathfinder of(TableMap map, int layer) {
+        Pathfinder finder = new Pathfinder(map.getRow(), map.getCol());
+        LayerStorage storage = map.getStorage();
+        for (int j = 0; j < finder.row; j++) {
+            for (int i = 0; i < finder.col; i++) {
+                finder.blocked[j * finder.col + i] = storage.get(layer, i, j) != null;
+            }
+        }
+        if (map instanceof BitmapTile) {
+            BitmapTile tile = (BitmapTile) map;
+            finder.setConnect(tile.isConnectUpDown(), tile.isConnectLeftRight());
+        }
+        return finder;
+    }
+
+    /**
+     * マップのループを設定する
+     *
+     * @param isConnectUpDown 上下がループしてるか
+     * @param isConnectLeftRight 左右がループしてるか
+     */
+    public void setConnect(boolean isConnectUpDown, boolean isConnectLeftRight) {
+        this.isConnectUpDown = isConnectUpDown;
+        this.isConnectLeftRight = isConnectLeftRight;
+    }
+
+    /**
+     * タイルを通れるかを設定する
+     *
+     * @param x x座標
+     * @param y y座標
+     * @param isBlocked 通れないときは {@code true}
+     */
+    public void setBlocked(int x, int y, boolean isBlocked) {
+        blocked[cell(x, y)] = isBlocked;
+    }
+
+    /**
+     * タイルを通れないかを判定
+     *
+     * @param x x座標
+     * @param y y座標
+     * @return 通れないときは {@code true}
+     */
+    public boolean isBlocked(int x, int y) {
+        return blocked[cell(x, y)];
+    }
+
+    /**
+     * 経路を求める
+     *
+     * @param fromX 出発するタイルのx座標
+     * @param fromY 出発するタイルのy座標
+     * @param toX 目的のタイルのx座標
+     * @param toY 目的のタイルのy座標
+     * @return 出発するタイルから目的のタイルまでのタイルの番号, 経路がないときは {@code null}
+     */
+    public int[] find(int fromX, int fromY, int toX, int toY) {
+        return find(cell(fromX, fromY), cell(toX, toY));
+    }
+
+    /**
+     * 経路を求める
+     *
+     * @param from 出発するタイルの番号
+     * @param to 目的のタイルの番号
+     * @return 出発するタイルから目的のタイルまでのタイルの番号, 経路がないときは {@code null}
+     */
+    public int[] find(int from, int to) {
+        if (from < 0 || from >= blocked.length || to < 0 || to >= blocked.length) {
+            throw new IndexOutOfBoundsException("from: " + from + ", to: " + to);
+        }
+        if (blocked[from] || blocked[to]) {
+            return null;
+        }
+        Scratch s = scratches.poll();
+        if (s == null) {
+            s = new Scratch(blocked.length);
+        }
+        try {
+            return find(s, from, to);
+        } finally {
+            scratches.offer(s);
+        }
+    }
+
+    /**
+     * 探索に使う配列を使って経路を求める
+     *
+     * @param s 探索に使う配列
+     * @param from 出発するタイルの番号
+     * @param to 目的のタイルの番号
+     * @return 出発するタイルから目的のタイルまでのタイルの番号, 経路がないときは {@code null}
+     */
+    private int[] find(Scratch s, int from, int to) {
+        s.begin();
+        int open = s.mark;
+        int closed = s.mark + 1;
+        int tx = to % col;
+        int ty = to / col;
+
+        s.g[from] = 0;
+        s.state[from] = open;
+        s.push((long) heuristic(from % col, from / col, tx, ty) << 32 | from);
+        while (s.size > 0) {
+            int c = (int) s.pop();
+            if (s.state[c] == closed) {
+                continue;
+            }
+            if (c == to) {
+                return path(s, from, to);
+            }
+            s.state[c] = closed;
+            int cx = c % col;
+            int cy = c / col;
+            int g = s.g[c] + 1;
+            for (int d = 0; d < 4; d++) {
+                int nx = cx + DX[d];
+                int ny = cy + DY[d];
+                if (nx < 0 || nx >= col) {
+                    if (!isConnectLeftRight) {
+                        continue;
+                    }
+                    nx = Math.floorMod(nx, col);
+                }
+                if (ny < 0 || ny >= row) {
+                    if (!isConnectUpDown) {
+                        continue;
+                    }
+                    ny = Math.floorMod(ny, row);
+                }
+                int n = ny * col + nx;
+                if (blocked[n] || s.state[n] == closed || (s.state[n] == open && s.g[n] <= g)) {
+                    continue;
+                }
+                s.g[n] = g;
+                s.dir[n] = (byte) d;
+                s.state[n] = open;
+                s.push((long) (g + heuristic(nx, ny, tx, ty)) << 32 | n);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 複数の経路を並列に求める
+     *
+     * @param from 出発するタイルの番号
+     * @param to 目的のタイルの番号, {@code from} と同じ長さ
+     * @return それぞれの経路, 経路がないときは {@code null}
+     */
+    public int[][] findAll(int[] from, int[] to) {
+        return findAll(from, to, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 複数の経路を並列に求める
+     *
+     * @param from 出発するタイルの番号
+     * @param to 目的のタイルの番号, {@code from} と同じ長さ
+     * @param pool 並列に求めるスレッドプール
+     * @return それぞれの経路, 経路がないときは {@code null}
+     */
+    public int[][] findAll(int[] from, int[] to, ForkJoinPool pool) {
+        if (from.length != to.length) {
+            throw new IllegalArgumentException("長さが違う: " + from.length + ", " + to.length);
+        }
+        int[][] paths = new int[from.length][];
+        if (from.length > 0) {
+            pool.invoke(new Batch(from, to, paths, 0, from.length));
+        }
+        return paths;
+    }
+
+    /**
+     * ２つのタイルの間の最短の移動回数を見積もる
+     *
+     * ループしている方向は近い方の距離にする
+     *
+     * @param x 一方のタイルのx座標
+     * @param y 一方のタイルのy座標
+     * @param tx もう一方のタイルのx座標
+     * @param ty もう一方のタイルのy座標
+     * @return 移動回数
+     */
+    private int heuristic(int x, int y, int tx, int ty) {
+        int dx = Math.abs(x - tx);
+        int dy = Math.abs(y - ty);
+        if (isConnectLeftRight) {
+            dx = Math.min(dx, col - dx);
+        }
+        if (isConnectUpDown) {
+            dy = Math.min(dy, row - dy);
+        }
+        return dx + dy;
+    }
+
+    /**
+     * 探索した方向を目的のタイルからたどって経路を作る
+     *
+     * @param s 探索に使った配列
+     * @param from 出発するタイルの番号
+     * @param to 目的のタイルの番号
+     * @return 出発するタイルから目的のタイルまでのタイルの番号
+     */
+    private int[] path(Scratch s, int from, int to) {
+        int[] path = new int[s.g[to] + 1];
+        int c = to;
+        for (int i = path.length - 1; i > 0; i--) {
+            path[i] = c;
+            int d = s.dir[c];
+            int px = Math.floorMod(c % col - DX[d], col);
+            int py = Math.floorMod(c / col - DY[d], row);
+            c = py * col + px;
+        }
+        path[0] = from;
+        return path;
+    }
+
+    /**
+     * 座標をタイルの番号にする
+     *
+     * @param x x座標
+     * @param y y座標
+     * @return タイルの番号
+     */
+    private int cell(int x, int y) {
+        if (x < 0 || x >= col || y < 0 || y >= row) {
+            throw new IndexOutOfBoundsException("(" + x + ", " + y + ")");
+        }
+        return y * col + x;
+    }
+
+    /**
+     * 探索に使う配列
+     *
+     * タイルの状態は探索ごとに増やす番号で表すので, 探索の前に配列を初期化しなくてよい
+     */
+    private static final class Scratch {
+        /**
+         * 出発するタイルからの移動回数
+         */
+        private final int[] g;
+        /**
+         * 直前のタイルからの移動の方向
+         */
+        private final byte[] dir;
+        /**
+         * タイルの状態, {@code mark} のときは未処理, {@code mark + 1} のときは処理済み
+         */
+        private final int[] state;
+        /**
+         * 今回の探索の番号
+         */
+        private int mark;
+        /**
+         * 未処理のタイルの二分ヒープ, {@code 見積もった移動回数 << 32 | タイルの番号}
+         */
+        private long[] heap = new long[64];
+        /**
+         * ヒープの要素の数
+         */
+        private int size;
+
+        /**
+         * コンストラクタ
+         *
+         * @param cells タイルの数
+         */
+        Scratch(int cells) {
+            this.g = new int[cells];
+            this.dir = new byte[cells];
+            this.state = new int[cells];
+        }
+
+        /**
+         * 探索を始める
+         */
+        void begin() {
+            mark += 2;
+            if (mark < 0) {
+                Arrays.fill(state, 0);
+                mark = 2;
+            }
+            size = 0;
+        }
+
+        /**
+         * ヒープに追加する
+         *
+         * @param key 追加する値
+         */
+        void push(long key) {
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= key) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = key;
+        }
+
+        /**
+         * ヒープから最小の値を取り出す
+         *
+         * @return 最小の値
+         */
+        long pop() {
+            long top = heap[0];
+            long key = heap[--size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                if (child + 1 < size && heap[child + 1] < heap[child]) {
+                    child++;
+                }
+                if (key <= heap[child]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                i = child;
+            }
+            heap[i] = key;
+            return top;
+        }
+    }
+
+    /**
+     * 複数の経路を分割して並列に求める処理
+     */
+    private final class Batch extends RecursiveAction {
+        /**
+         * 出発するタイルの番号
+         */
+        private final int[] from;
+        /**
+         * 目的のタイルの番号
+         */
+        private final int[] to;
+        /**
+         * 求めた経路
+         */
+        private final int[][] paths;
+        /**
+         * 求める範囲の先頭
+         */
+        private final int start;
+        /**
+         * 求める範囲の末尾の次
+         */
+        private final int end;
+
+        /**
+         * コンストラクタ
+         *
+         * @param from 出発するタイルの番号
+         * @param to 目的のタイルの番号
+         * @param paths 求めた経路
+         * @param start 求める範囲の先頭
+         * @param end 求める範囲の末尾の次
+         */
+        Batch(int[] from, int[] to, int[][] paths, int start, int end) {
+            this.from = from;
+            this.to = to;
+            this.paths = paths;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                paths[start] = find(from[start], to[start]);
+            } else {
+                int mid = (start + end) >>> 1;
+                invokeAll(new Batch(from, to, paths, start, mid), new Batch(from, to, paths, mid, end));
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package xyz.osamusasa.map;
+
+/**
+ * マップの描画の統計を受け取るリスナー
+ */
+public interface RenderListener {
+    /**
+     * １フレームの描画が終わったときに描画したスレッドで呼ばれる
+     *
+     * @param map 描画したマップ
+     * @param stats 描画の統計, 呼び出しの外で保持してはならない
+     */
+    void frameRendered(TiledMap map, RenderStats stats);
+}
@@ -0,0 +1,158 @@
+package xyz.osamusasa.map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 描画の統計を集計し, JMXで公開するリスナー
+ *
+ * <pre>{@code
+ * RenderMonitor monitor = new RenderMonitor();
+ * map.addRenderListener(monitor);
+ * monitor.register("main");
+ * }</pre>
+ */
+public class RenderMonitor implements RenderListener, RenderMonitorMXBean {
+    /**
+     * １ミリ秒あたりのナノ秒
+     */
+    private static final double NANOS_PER_MILLI = 1_000_000.0;
+
+    /**
+     * 描画時間のヒストグラム
+     */
+    private final FrameTimeHistogram histogram;
+    /**
+     * 調べたタイルの数
+     */
+    private final LongAdder cellsVisited;
+    /**
+     * 描画したタイルの数
+     */
+    private final LongAdder cellsDrawn;
+    /**
+     * 拡大縮小した画像の数
+     */
+    private final LongAdder imagesScaled;
+    /**
+     * 焼き付けたブロックの数
+     */
+    private final LongAdder blocksBaked;
+    /**
+     * 確保したメモリのバイト数
+     */
+    private final LongAdder bytesAllocated;
+
+    /**
+     * コンストラクタ
+     */
+    public RenderMonitor() {
+        this.histogram = new FrameTimeHistogram();
+        this.cellsVisited = new LongAdder();
+        this.cellsDrawn = new LongAdder();
+        this.imagesScaled = new LongAdder();
+        this.blocksBaked = new LongAdder();
+        this.bytesAllocated = new LongAdder();
+    }
+
+    /**
+     * プラットフォームのMBeanサーバーに登録する
+     *
+     * @param name 名前
+     * @return 登録したオブジェクト名
+     */
+    public ObjectName register(String name) {
+        try {
+            ObjectName objectName = new ObjectName("xyz.osamusasa.map:type=RenderMonitor,name=" + ObjectName.quote(name));
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(this, objectName);
+            return objectName;
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void frameRendered(TiledMap map, RenderStats stats) {
+        histogram.record(stats.getDrawNanos());
+        cellsVisited.add(stats.getCellsVisited());
+        cellsDrawn.add(stats.getCellsDrawn());
+        imagesScaled.add(stats.getImagesScaled());
+        blocksBaked.add(stats.getBlocksBaked());
+        if (stats.getBytesAllocated() > 0) {
+            bytesAllocated.add(stats.getBytesAllocated());
+        }
+    }
+
+    /**
+     * 描画時間のヒストグラムを取得
+     *
+     * @return 描画時間のヒストグラム
+     */
+    public FrameTimeHistogram getHistogram() {
+        return histogram;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public double getMeanFrameMillis() {
+        return histogram.getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMedianFrameMillis() {
+        return histogram.getPercentileNanos(0.5) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getP99FrameMillis() {
+        return histogram.getPercentileNanos(0.99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxFrameMillis() {
+        return histogram.getMaxNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public long getCellsVisited() {
+        return cellsVisited.sum();
+    }
+
+    @Override
+    public long getCellsDrawn() {
+        return cellsDrawn.sum();
+    }
+
+    @Override
+    public long getImagesScaled() {
+        return imagesScaled.sum();
+    }
+
+    @Override
+    public long getBlocksBaked() {
+        return blocksBaked.sum();
+    }
+
+    @Override
+    public long getBytesAllocated() {
+        return bytesAllocated.sum();
+    }
+
+    @Override
+    public void reset() {
+        histogram.reset();
+        cellsVisited.reset();
+        cellsDrawn.reset();
+        imagesScaled.reset();
+        blocksBaked.reset();
+        bytesAllocated.reset();
+    }
+}
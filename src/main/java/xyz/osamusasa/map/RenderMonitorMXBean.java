@@ -0,0 +1,81 @@
+package xyz.osamusasa.map;
+
+/**
+ * JMXで公開する描画の統計
+ */
+public interface RenderMonitorMXBean {
+    /**
+     * 描画したフレームの数を取得
+     *
+     * @return 描画したフレームの数
+     */
+    long getFrameCount();
+
+    /**
+     * 平均の描画時間を取得
+     *
+     * @return 平均の描画時間 (ミリ秒)
+     */
+    double getMeanFrameMillis();
+
+    /**
+     * 描画時間の中央値を取得
+     *
+     * @return 描画時間の中央値 (ミリ秒)
+     */
+    double getMedianFrameMillis();
+
+    /**
+     * 描画時間の99パーセンタイルを取得
+     *
+     * @return 描画時間の99パーセンタイル (ミリ秒)
+     */
+    double getP99FrameMillis();
+
+    /**
+     * 最大の描画時間を取得
+     *
+     * @return 最大の描画時間 (ミリ秒)
+     */
+    double getMaxFrameMillis();
+
+    /**
+     * 調べたタイルの合計の数を取得
+     *
+     * @return 調べたタイルの数
+     */
+    long getCellsVisited();
+
+    /**
+     * 描画したタイルの合計の数を取得
+     *
+     * @return 描画したタイルの数
+     */
+    long getCellsDrawn();
+
+    /**
+     * 拡大縮小した画像の合計の数を取得
+     *
+     * @return 拡大縮小した画像の数
+     */
+    long getImagesScaled();
+
+    /**
+     * 焼き付けたブロックの合計の数を取得
+     *
+     * @return 焼き付けたブロックの数
+     */
+    long getBlocksBaked();
+
+    /**
+     * 描画中に確保したメモリの合計のバイト数を取得
+     *
+     * @return 確保したメモリのバイト数
+     */
+    long getBytesAllocated();
+
+    /**
+     * 統計を消去する
+     */
+    void reset();
+}
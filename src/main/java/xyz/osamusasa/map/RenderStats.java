@@ -0,0 +1,198 @@
+package xyz.osamusasa.map;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * １フレームの描画の統計
+ *
+ * 同じインスタンスをフレームごとに使い回すので, リスナーは呼び出しの外で保持してはならない
+ */
+public final class RenderStats {
+    /**
+     * スレッドごとの確保したメモリを測定できるときのMXBean, できないときは {@code null}
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATION_BEAN = allocationBean();
+
+    /**
+     * 描画にかかった時間 (ナノ秒)
+     */
+    private long drawNanos;
+    /**
+     * 調べたタイルの数
+     */
+    private long cellsVisited;
+    /**
+     * 描画したタイルの数
+     */
+    private long cellsDrawn;
+    /**
+     * 拡大縮小した画像の数
+     */
+    private long imagesScaled;
+    /**
+     * 焼き付けたブロックの数
+     */
+    private long blocksBaked;
+    /**
+     * 描画中に確保したメモリのバイト数, 測定できないときは {@code -1}
+     */
+    private long bytesAllocated;
+
+    /**
+     * コンストラクタ
+     */
+    RenderStats() {}
+
+    /**
+     * すべての値を０に戻す
+     */
+    void reset() {
+        drawNanos = 0;
+        cellsVisited = 0;
+        cellsDrawn = 0;
+        imagesScaled = 0;
+        blocksBaked = 0;
+        bytesAllocated = 0;
+    }
+
+    /**
+     * 描画にかかった時間を取得
+     *
+     * @return 描画にかかった時間 (ナノ秒)
+     */
+    public long getDrawNanos() {
+        return drawNanos;
+    }
+
+    /**
+     * 調べたタイルの数を取得
+     *
+     * @return 調べたタイルの数
+     */
+    public long getCellsVisited() {
+        return cellsVisited;
+    }
+
+    /**
+     * 描画したタイルの数を取得
+     *
+     * @return 描画したタイルの数
+     */
+    public long getCellsDrawn() {
+        return cellsDrawn;
+    }
+
+    /**
+     * 拡大縮小した画像の数を取得
+     *
+     * @return 拡大縮小した画像の数
+     */
+    public long getImagesScaled() {
+        return imagesScaled;
+    }
+
+    /**
+     * 焼き付けたブロックの数を取得
+     *
+     * @return 焼き付けたブロックの数
+     */
+    public long getBlocksBaked() {
+        return blocksBaked;
+    }
+
+    /**
+     * 描画中に確保したメモリのバイト数を取得
+     *
+     * @return 確保したメモリのバイト数, 測定できないときは {@code -1}
+     */
+    public long getBytesAllocated() {
+        return bytesAllocated;
+    }
+
+    /**
+     * 描画にかかった時間をセット
+     *
+     * @param drawNanos 描画にかかった時間 (ナノ秒)
+     */
+    void setDrawNanos(long drawNanos) {
+        this.drawNanos = drawNanos;
+    }
+
+    /**
+     * 調べたタイルの数を加える
+     *
+     * @param n 加える数
+     */
+    void addCellsVisited(long n) {
+        cellsVisited += n;
+    }
+
+    /**
+     * 描画したタイルの数を加える
+     *
+     * @param n 加える数
+     */
+    void addCellsDrawn(long n) {
+        cellsDrawn += n;
+    }
+
+    /**
+     * 拡大縮小した画像の数を加える
+     *
+     * @param n 加える数
+     */
+    void addImagesScaled(long n) {
+        imagesScaled += n;
+    }
+
+    /**
+     * 焼き付けたブロックの数を加える
+     *
+     * @param n 加える数
+     */
+    void addBlocksBaked(long n) {
+        blocksBaked += n;
+    }
+
+    /**
+     * 描画中に確保したメモリのバイト数をセット
+     *
+     * @param bytesAllocated 確保したメモリのバイト数, 測定できないときは {@code -1}
+     */
+    void setBytesAllocated(long bytesAllocated) {
+        this.bytesAllocated = bytesAllocated;
+    }
+
+    /**
+     * 現在のスレッドがこれまでに確保したメモリのバイト数を取得
+     *
+     * @return 確保したメモリのバイト数, 測定できないときは {@code -1}
+     */
+    static long currentThreadAllocatedBytes() {
+        if (ALLOCATION_BEAN == null) {
+            return -1;
+        }
+        return ALLOCATION_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * スレッドごとの確保したメモリを測定するMXBeanを取得
+     *
+     * @return MXBean, 測定できないときは {@code null}
+     */
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+                if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                    return sunBean;
+                }
+            }
+        } catch (LinkageError | SecurityException e) {
+            //com.sun.management がない環境では測定しない
+        }
+        return null;
+    }
+}
@@ -0,0 +1,148 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * 拡大縮小した画像のキャッシュ
+ *
+ * 元の画像のインスタンスと描画サイズをキーとして縮尺済みの画像を保持する.
+ * 同じインスタンスを指すタイルはすべて１つの縮尺済み画像を共有する.
+ * 大きく縮小するときは {@link MipmapChain} から描画サイズに近いレベルの画像を選んで縮尺する.
+ * 複数のスレッドから同時に使える.
+ */
+final class ScaledImageCache implements ImageScaler {
+    /**
+     * キャッシュしている画像の幅
+     */
+    private int width;
+    /**
+     * キャッシュしている画像の高さ
+     */
+    private int height;
+
+    /**
+     * 元の画像から縮尺済みの画像への対応
+     *
+     * {@code Image} は {@code equals} をオーバーライドしないのでインスタンスごとに区別される.
+     * マップから取り除かれた画像はGCで回収される.
+     */
+    private final Map<Image, BufferedImage> scaledImages;
+
+    /**
+     * 元の画像から縮小した画像の列への対応
+     *
+     * 拡大倍率によらないので {@link #invalidate()} では破棄しない
+     */
+    private final Map<Image, MipmapChain> mipmaps;
+
+    /**
+     * これまでに縮尺した画像の数
+     */
+    private long scaleCount;
+
+    /**
+     * コンストラクタ
+     */
+    ScaledImageCache() {
+        this.width = -1;
+        this.height = -1;
+        this.scaledImages = new WeakHashMap<>();
+        this.mipmaps = new WeakHashMap<>();
+    }
+
+    /**
+     * 指定されたサイズに縮尺した画像を取得する
+     *
+     * 前回と異なるサイズが指定されたときはそれまでのキャッシュを破棄する
+     *
+     * @param img 元の画像
+     * @param w 描画する幅
+     * @param h 描画する高さ
+     * @return 縮尺済みの画像, サイズが０以下のときは {@code null}
+     */
+    @Override
+    public synchronized BufferedImage get(Image img, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return null;
+        }
+        if (w != width || h != height) {
+            invalidate();
+            width = w;
+            height = h;
+        }
+
+        BufferedImage scaled = scaledImages.get(img);
+        if (scaled == null) {
+            Image src = img;
+            if (w * 2 <= img.getWidth(null) && h * 2 <= img.getHeight(null)) {
+                MipmapChain chain = getMipmapChain(img);
+                src = chain.getLevel(chain.getLevelFor(w, h));
+            }
+            scaled = scale(src, w, h);
+            scaledImages.put(img, scaled);
+            scaleCount++;
+        }
+        return scaled;
+    }
+
+    /**
+     * 画像の平均の色を取得する
+     *
+     * @param img 元の画像
+     * @return 平均の色
+     */
+    @Override
+    public synchronized Color getAverageColor(Image img) {
+        return getMipmapChain(img).getAverageColor();
+    }
+
+    /**
+     * 画像を縮小した画像の列を取得する
+     *
+     * @param img 元の画像
+     * @return 縮小した画像の列
+     */
+    private MipmapChain getMipmapChain(Image img) {
+        MipmapChain chain = mipmaps.get(img);
+        if (chain == null) {
+            chain = new MipmapChain(img);
+            mipmaps.put(img, chain);
+        }
+        return chain;
+    }
+
+    /**
+     * これまでに縮尺した画像の数を取得
+     *
+     * @return 縮尺した画像の数
+     */
+    synchronized long getScaleCount() {
+        return scaleCount;
+    }
+
+    /**
+     * キャッシュを破棄する
+     */
+    synchronized void invalidate() {
+        scaledImages.clear();
+    }
+
+    /**
+     * 画像を指定されたサイズに縮尺する
+     *
+     * @param img 元の画像
+     * @param w 幅
+     * @param h 高さ
+     * @return 縮尺した画像
+     */
+    static BufferedImage scale(Image img, int w, int h) {
+        BufferedImage bimg = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = bimg.getGraphics();
+        g.drawImage(img.getScaledInstance(w, h, Image.SCALE_SMOOTH), 0, 0, null);
+        g.dispose();
+        return bimg;
+    }
+}
@@ -0,0 +1,129 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * {@link Entity} の画像を拡大縮小した画像のキャッシュ
+ *
+ * {@code Entity} はタイルと異なる大きさで描画されることがあるので,
+ * 元の画像のインスタンスと描画サイズの組をキーとして縮尺済みの画像を保持する.
+ * 異なるサイズを描画してもほかのサイズのキャッシュは破棄しない.
+ * １つの画像について保持するサイズの数には上限があり, 超えたときは最も長く使っていないサイズを破棄する.
+ * 複数のスレッドから同時に使える.
+ */
+final class SpriteImageCache implements ImageScaler {
+    /**
+     * １つの画像について保持する描画サイズの数の上限
+     */
+    private static final int MAX_SIZES = 4;
+
+    /**
+     * 元の画像から, {@code 幅 << 32 | 高さ} と縮尺済みの画像の対応への対応
+     *
+     * マップから取り除かれた画像はGCで回収される.
+     */
+    private final Map<Image, Map<Long, BufferedImage>> scaledImages;
+
+    /**
+     * 元の画像から縮小した画像の列への対応
+     */
+    private final Map<Image, MipmapChain> mipmaps;
+
+    /**
+     * これまでに縮尺した画像の数
+     */
+    private long scaleCount;
+
+    /**
+     * コンストラクタ
+     */
+    SpriteImageCache() {
+        this.scaledImages = new WeakHashMap<>();
+        this.mipmaps = new WeakHashMap<>();
+    }
+
+    /**
+     * 指定されたサイズに縮尺した画像を取得する
+     *
+     * @param img 元の画像
+     * @param w 描画する幅
+     * @param h 描画する高さ
+     * @return 縮尺済みの画像, サイズが０以下のときは {@code null}
+     */
+    @Override
+    public synchronized BufferedImage get(Image img, int w, int h) {
+        if (w <= 0 || h <= 0) {
+            return null;
+        }
+        Map<Long, BufferedImage> sizes = scaledImages.get(img);
+        if (sizes == null) {
+            sizes = new LinkedHashMap<Long, BufferedImage>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+                    return size() > MAX_SIZES;
+                }
+            };
+            scaledImages.put(img, sizes);
+        }
+
+        long key = (long) w << 32 | h;
+        BufferedImage scaled = sizes.get(key);
+        if (scaled == null) {
+            Image src = img;
+            if (w * 2 <= img.getWidth(null) && h * 2 <= img.getHeight(null)) {
+                MipmapChain chain = getMipmapChain(img);
+                src = chain.getLevel(chain.getLevelFor(w, h));
+            }
+            scaled = ScaledImageCache.scale(src, w, h);
+            sizes.put(key, scaled);
+            scaleCount++;
+        }
+        return scaled;
+    }
+
+    /**
+     * 画像の平均の色を取得する
+     *
+     * @param img 元の画像
+     * @return 平均の色
+     */
+    @Override
+    public synchronized Color getAverageColor(Image img) {
+        return getMipmapChain(img).getAverageColor();
+    }
+
+    /**
+     * 画像を縮小した画像の列を取得する
+     *
+     * @param img 元の画像
+     * @return 縮小した画像の列
+     */
+    private MipmapChain getMipmapChain(Image img) {
+        MipmapChain chain = mipmaps.get(img);
+        if (chain == null) {
+            chain = new MipmapChain(img);
+            mipmaps.put(img, chain);
+        }
+        return chain;
+    }
+
+    /**
+     * これまでに縮尺した画像の数を取得
+     *
+     * @return 縮尺した画像の数
+     */
+    synchronized long getScaleCount() {
+        return scaleCount;
+    }
+
+    /**
+     * キャッシュを破棄する
+     */
+    synchronized void invalidate() {
+        scaledImages.clear();
+    }
+}
@@ -0,0 +1,276 @@
+package xyz.osamusasa.map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * 大きな画像ファイルを横長の帯ごとに読み込む
+ *
+ * {@code ImageReadParam#setSourceRegion} で要求された帯だけを読み込み,
+ * 読み込んだ帯は使用するメモリの上限を超えない範囲で最近使った順に保持する.
+ * 画像全体をメモリに読み込むことはない.
+ * 複数のスレッドから同時に使え, 読み込みはロックの外で行うので異なる帯を並行に読み込める.
+ */
+final class StripDecoder {
+    /**
+     * 画像ファイル
+     */
+    private final File file;
+    /**
+     * 画像の幅
+     */
+    private final int width;
+    /**
+     * 画像の高さ
+     */
+    private final int height;
+    /**
+     * 画像の透過の種類
+     */
+    private final int transparency;
+    /**
+     * １つの帯の高さ
+     */
+    private final int stripHeight;
+
+    /**
+     * 保持する帯の合計のバイト数の上限
+     */
+    private final long memoryBudget;
+    /**
+     * 保持している帯の合計のバイト数
+     */
+    private long cachedBytes;
+    /**
+     * 帯の番号から読み込んだ帯への対応, 最近使った順に並ぶ
+     */
+    private final LinkedHashMap<Integer, BufferedImage> strips;
+    /**
+     * 帯の番号から読み込み中の処理への対応
+     */
+    private final Map<Integer, CompletableFuture<BufferedImage>> loading;
+
+    /**
+     * コンストラクタ
+     *
+     * 画像の大きさと形式だけを読み, 画素は読まない
+     *
+     * @param file 画像ファイル
+     * @param stripHeight １つの帯の高さ
+     * @param memoryBudget 保持する帯の合計のバイト数の上限
+     * @throws IOException 読み込めない形式のとき
+     */
+    StripDecoder(File file, int stripHeight, long memoryBudget) throws IOException {
+        if (stripHeight <= 0) {
+            throw new IllegalArgumentException("stripHeight: " + stripHeight);
+        }
+        this.file = file;
+        this.stripHeight = stripHeight;
+        this.memoryBudget = memoryBudget;
+        this.strips = new LinkedHashMap<>(16, 0.75f, true);
+        this.loading = new HashMap<>();
+
+        try (ImageInputStream in = open()) {
+            ImageReader reader = reader(in);
+            try {
+                this.width = reader.getWidth(0);
+                this.height = reader.getHeight(0);
+                ImageTypeSpecifier type = reader.getRawImageType(0);
+                if (type == null) {
+                    Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                    type = types.hasNext() ? types.next() : null;
+                }
+                this.transparency = type == null ? Transparency.TRANSLUCENT : type.getColorModel().getTransparency();
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * 画像の幅を取得
+     *
+     * @return 画像の幅
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * 画像の高さを取得
+     *
+     * @return 画像の高さ
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * 画像の透過の種類を取得
+     *
+     * @return {@code Transparency} の定数
+     */
+    int getTransparency() {
+        return transparency;
+    }
+
+    /**
+     * 指定された番号の帯を取得する
+     *
+     * 保持していないときは読み込み, 上限を超えた分は使われていない帯から破棄する.
+     * 同じ帯を読み込み中のときはその読み込みが終わるのを待つ
+     *
+     * @param index 帯の番号, 上から {@code index * stripHeight} の位置の帯
+     * @return 帯の画像
+     */
+    BufferedImage getStrip(int index) {
+        CompletableFuture<BufferedImage> future;
+        synchronized (this) {
+            BufferedImage strip = strips.get(index);
+            if (strip != null) {
+                return strip;
+            }
+            future = loading.get(index);
+            if (future == null) {
+                loading.put(index, new CompletableFuture<>());
+            }
+        }
+        if (future != null) {
+            try {
+                return future.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        BufferedImage strip;
+        try {
+            int y = index * stripHeight;
+            strip = read(new Rectangle(0, y, width, Math.min(stripHeight, height - y)), 1);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                future = loading.remove(index);
+            }
+            future.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (this) {
+            future = loading.remove(index);
+            strips.put(index, strip);
+            cachedBytes += sizeOf(strip);
+
+            Iterator<Map.Entry<Integer, BufferedImage>> it = strips.entrySet().iterator();
+            while (cachedBytes > memoryBudget && strips.size() > 1) {
+                cachedBytes -= sizeOf(it.next().getValue());
+                it.remove();
+            }
+        }
+        future.complete(strip);
+        return strip;
+    }
+
+    /**
+     * 保持している帯の合計のバイト数を取得
+     *
+     * @return 保持している帯の合計のバイト数
+     */
+    synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    /**
+     * 画像全体を間引いて読み込む
+     *
+     * 帯のキャッシュは使わない
+     *
+     * @param subsampling 縦横それぞれ何画素ごとに１画素を読むか
+     * @return 読み込んだ画像
+     */
+    BufferedImage readSubsampled(int subsampling) {
+        return read(null, subsampling);
+    }
+
+    /**
+     * 画像の指定された範囲を読み込む
+     *
+     * @param region 読み込む範囲, 全体のときは {@code null}
+     * @param subsampling 縦横それぞれ何画素ごとに１画素を読むか
+     * @return 読み込んだ画像
+     */
+    private BufferedImage read(Rectangle region, int subsampling) {
+        try (ImageInputStream in = open()) {
+            ImageReader reader = reader(in);
+            try {
+                ImageReadParam param = reader.getDefaultReadParam();
+                if (region != null) {
+                    param.setSourceRegion(region);
+                }
+                if (subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 画像ファイルを開く
+     *
+     * @return 画像の入力
+     * @throws IOException 開けないとき
+     */
+    private ImageInputStream open() throws IOException {
+        ImageInputStream in = ImageIO.createImageInputStream(file);
+        if (in == null) {
+            throw new IOException("開けない: " + file);
+        }
+        return in;
+    }
+
+    /**
+     * 画像の入力に対応するリーダーを取得
+     *
+     * @param in 画像の入力
+     * @return 入力を設定したリーダー
+     * @throws IOException 対応するリーダーがないとき
+     */
+    private ImageReader reader(ImageInputStream in) throws IOException {
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            in.close();
+            throw new IOException("対応してない種類の画像ファイル: " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(in, true, true);
+        return reader;
+    }
+
+    /**
+     * 画像が使うメモリのバイト数を見積もる
+     *
+     * @param img 画像
+     * @return バイト数
+     */
+    private static long sizeOf(BufferedImage img) {
+        int bits = img.getColorModel().getPixelSize();
+        return (long) img.getWidth() * img.getHeight() * Math.max(1, (bits + 7) / 8);
+    }
+}
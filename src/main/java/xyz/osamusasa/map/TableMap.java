@@ -4,12 +4,47 @@ import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 
 /**
  * 複数のレイヤーを持つ２次元の表でタイルを表示する
  */
 public class TableMap extends TiledMap {
+    /**
+     * 範囲外を表すタイルの番号
+     */
+    public static final int NO_CELL = -1;
+
+    /**
+     * 画像を描画する最小のタイルの大きさ
+     *
+     * これより小さいタイルは画像の平均の色で塗りつぶす
+     */
+    private static final int MIN_IMAGE_SIZE = 4;
+
+    /**
+     * {@link EntityLayer} のバケット１つの辺のタイルの数
+     */
+    private static final int ENTITY_BUCKET_TILES = 4;
+
+    /**
+     * {@link EntityLayer} のバケットの数の上限
+     *
+     * 大きなマップではバケットを大きくしてこの数に収める
+     */
+    private static final int MAX_ENTITY_BUCKETS = 1 << 20;
+
     /**
      * 行数
      */
@@ -30,10 +65,151 @@ public class TableMap extends TiledMap {
     private int unitHeight;
 
     /**
-     * 描画するイメージの配列
+     * 描画するイメージを保持する記憶領域
+     */
+    private LayerStorage tiledImages;
+
+    /**
+     * タイルごとの画像のある一番上のレイヤーの索引
+     */
+    private final TopLayerIndex topLayers;
+
+    /**
+     * 縮尺済みの画像のキャッシュ
+     */
+    private final ScaledImageCache scaledImageCache;
+
+    /**
+     * {@link #render(Graphics, int, int, double)} で使う縮尺済みの画像のキャッシュ
+     */
+    private final ConcurrentScaledImageCache renderImageCache;
+
+    /**
+     * {@code Entity} の縮尺済みの画像のキャッシュ
+     *
+     * {@code Entity} はタイルと異なる大きさで描画されることがあるので, タイルのキャッシュとは分ける
+     */
+    private final SpriteImageCache spriteImageCache;
+
+    /**
+     * {@link #render(Graphics, int, int, double)} で使う {@code Entity} の縮尺済みの画像のキャッシュ
+     */
+    private final SpriteImageCache renderSpriteCache;
+
+    /**
+     * 焼き付ける静的なレイヤーの数
      */
-    private Image[][][] tiledImages;
+    private int staticLayers;
 
+    /**
+     * 静的なレイヤーを焼き付けた画像のキャッシュ
+     */
+    private final LayerComposite composite;
+
+    /**
+     * 変更されたタイルの範囲の左端の列
+     */
+    private int dirtyLeft;
+    /**
+     * 変更されたタイルの範囲の上端の行
+     */
+    private int dirtyTop;
+    /**
+     * 変更されたタイルの範囲の右端の次の列
+     */
+    private int dirtyRight;
+    /**
+     * 変更されたタイルの範囲の下端の次の行
+     */
+    private int dirtyBottom;
+
+    /**
+     * 前回変更範囲を取得したときの表示位置と大きさ
+     *
+     * まだ取得していないときは {@code null}
+     */
+    private Rectangle lastView;
+
+    /**
+     * 読み込み中の画像から, その画像を仮の表示で描画したタイルへの対応
+     *
+     * レイヤーごとに, タイルを {@code y << 32 | x} で表す.
+     * 描画するスレッドからだけ使う.
+     */
+    private final Map<DeferredImage, Map<Integer, Set<Long>>> pendingCells;
+
+    /**
+     * 読み込みが終わり, まだ再描画の範囲に加えていない画像
+     */
+    private final Queue<DeferredImage> loadedImages;
+
+    /**
+     * アニメーションするタイルを置いたタイルの索引
+     */
+    private final AnimatedCellIndex animatedCells;
+
+    /**
+     * アニメーションするタイルのコマを決める時刻 (ミリ秒)
+     *
+     * {@link #update()} が呼ばれたときに全体で共通の時計から取得する
+     */
+    private long animationTime;
+
+    /**
+     * タイルの上に描画する {@code Entity}, まだ使っていないときは {@code null}
+     */
+    private EntityLayer entities;
+
+    /**
+     * 描画する {@code Entity} を集めるリスト
+     *
+     * 描画するスレッドからだけ使う
+     */
+    private final List<Entity> visibleEntities = new ArrayList<>();
+
+    /**
+     * タイルの変更を受け取るリスナーと関心のあるレイヤー
+     */
+    private volatile ChangeRegistration[] changeListeners = new ChangeRegistration[0];
+
+    /**
+     * リスナーに渡す変更の値, 通知のたびに使い回す
+     */
+    private final MapChangeEvent changeEvent = new MapChangeEvent();
+
+    /**
+     * リスナーに通知している最中か
+     */
+    private boolean isDispatching;
+
+    /**
+     * 実行中の {@link #edit(Consumer)} の入れ子の深さ
+     */
+    private int batchDepth;
+    /**
+     * まとめて変更している範囲の一番下のレイヤー
+     */
+    private int batchFromLayer;
+    /**
+     * まとめて変更している範囲の一番上のレイヤー
+     */
+    private int batchToLayer;
+    /**
+     * まとめて変更している範囲の左端の列
+     */
+    private int batchLeft;
+    /**
+     * まとめて変更している範囲の上端の行
+     */
+    private int batchTop;
+    /**
+     * まとめて変更している範囲の右端の次の列
+     */
+    private int batchRight;
+    /**
+     * まとめて変更している範囲の下端の次の行
+     */
+    private int batchBottom;
 
     /**
      * コンストラクタ
@@ -45,15 +221,57 @@ public class TableMap extends TiledMap {
      * @param unitHeight 単位当たりの高さ
      */
     public TableMap(int layer, int row, int col, int unitWidth, int unitHeight) {
-        super(unitWidth * col, unitHeight * row);
+        this(new DenseLayerStorage(layer, row, col), unitWidth, unitHeight);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param storage 画像を保持する記憶領域
+     * @param unitWidth 単位当たりの幅
+     * @param unitHeight 単位当たりの高さ
+     */
+    public TableMap(LayerStorage storage, int unitWidth, int unitHeight) {
+        super(unitWidth * storage.getCol(), unitHeight * storage.getRow());
 
-        this.row = row;
-        this.col = col;
+        this.row = storage.getRow();
+        this.col = storage.getCol();
         this.unitWidth = unitWidth;
         this.unitHeight = unitHeight;
-        tiledImages = new Image[layer][col][row];
+        tiledImages = storage;
+        if (storage instanceof MappedTileIdLayerStorage) {
+            //ヒープの使用量をマップの大きさによらず一定にするため索引を持たない
+            topLayers = new TopLayerIndex((TileIdLayerStorage) storage);
+        } else {
+            topLayers = new TopLayerIndex(storage.getLayerCount(), row, col);
+        }
+        scaledImageCache = new ScaledImageCache();
+        renderImageCache = new ConcurrentScaledImageCache();
+        spriteImageCache = new SpriteImageCache();
+        renderSpriteCache = new SpriteImageCache();
+        composite = new LayerComposite();
+        pendingCells = new IdentityHashMap<>();
+        loadedImages = new ConcurrentLinkedQueue<>();
+        animatedCells = new AnimatedCellIndex(storage.getLayerCount(), row, col);
+        animationTime = AnimatedTile.clockMillis();
+        clearDirty();
 
-        fill(null);
+        if (!topLayers.isStored()) {
+            return;
+        }
+        if (storage instanceof ArrayTileIdLayerStorage) {
+            //配列から直接索引を作る
+            ArrayTileIdLayerStorage arrays = (ArrayTileIdLayerStorage) storage;
+            for (int i=0; i<storage.getLayerCount(); i++) {
+                topLayers.raise(arrays.getLayer(i), i);
+            }
+        } else {
+            for (int j=0; j<row; j++) {
+                for (int i=0; i<col; i++) {
+                    updateTopLayer(i, j, storage.getLayerCount());
+                }
+            }
+        }
     }
 
     /**
@@ -64,50 +282,367 @@ public class TableMap extends TiledMap {
     @Override
     protected void drawBounds(Graphics g) {
         super.drawBounds(g);
-        for (int i=1; i<row; i++) {
-            g.drawLine(
-                    posX,
-                    posY + getDrawableHeight()/row*i,
-                    posX + getDrawableWidth(),
-                    posY + getDrawableHeight()/row*i
-            );
+
+        int w = getDrawableWidth() / col;
+        int h = getDrawableHeight() / row;
+        Rectangle clip = getClip(g);
+        int left = Math.max(posX, clip.x);
+        int right = Math.min(posX + getDrawableWidth(), clip.x + clip.width);
+        int top = Math.max(posY, clip.y);
+        int bottom = Math.min(posY + getDrawableHeight(), clip.y + clip.height);
+        if (left > right || top > bottom) {
+            return;
+        }
+
+        int rowFrom = 1;
+        int rowTo = row - 1;
+        if (h > 0) {
+            rowFrom = Math.max(rowFrom, Math.floorDiv(top - posY, h));
+            rowTo = Math.min(rowTo, Math.floorDiv(bottom - posY, h));
+        }
+        for (int i=rowFrom; i<=rowTo; i++) {
+            g.drawLine(left, posY + h*i, right, posY + h*i);
         }
-        for (int i=1; i<col; i++) {
-            g.drawLine(
-                    posX + getDrawableWidth()/col*i,
-                    posY,
-                    posX + getDrawableWidth()/col*i,
-                    posY + getDrawableHeight()
-            );
+        int colFrom = 1;
+        int colTo = col - 1;
+        if (w > 0) {
+            colFrom = Math.max(colFrom, Math.floorDiv(left - posX, w));
+            colTo = Math.min(colTo, Math.floorDiv(right - posX, w));
+        }
+        for (int i=colFrom; i<=colTo; i++) {
+            g.drawLine(posX + w*i, top, posX + w*i, bottom);
         }
     }
 
     /**
      * 描画関数
      *
+     * 描画範囲と重なるタイルだけを描画する
+     *
      * @param g グラフィックオブジェクト
      */
     @Override
     void draw(Graphics g) {
         int w = getDrawableWidth() / col;
         int h = getDrawableHeight() / row;
+        applyLoadedImages();
+        Rectangle cells = getVisibleCells(getClip(g), posX, posY, w, h);
+        if (cells == null) {
+            return;
+        }
+
+        RenderStats stats = getRecordingStats();
+        long scaleCount = stats == null ? 0 : getScaleCount();
+        int baked = 0;
+        int drawn = 0;
+
+        Color color = g.getColor();
+        if (staticLayers > 0) {
+            baked = drawComposite(g, cells, w, h);
+        }
+        for (int k = cells.y; k < cells.y + cells.height; k++) {
+            for (int j = cells.x; j < cells.x + cells.width; j++) {
+                int top = topLayers.get(j, k);
+                if (top >= staticLayers) {
+                    drawCell(g, scaledImageCache, j, k, staticLayers, top, posX + w*j, posY + h*k, w, h, true);
+                    drawn++;
+                }
+            }
+        }
+        if (entities != null) {
+            drawEntities(g, spriteImageCache, cells, posX, posY, w, h, visibleEntities);
+        }
+        g.setColor(color);
+
+        if (stats != null) {
+            stats.addCellsVisited((long) cells.width * cells.height);
+            stats.addCellsDrawn(drawn);
+            stats.addBlocksBaked(baked);
+            stats.addImagesScaled(getScaleCount() - scaleCount);
+        }
+    }
+
+    /**
+     * 指定された位置と拡大倍率でマップを描画する
+     *
+     * 表示位置, 拡大倍率, 焼き付けた画像のキャッシュを使わないので,
+     * 複数のスレッドから同時に呼び出せる
+     *
+     * @param g グラフィックオブジェクト
+     * @param originX マップの左上のX座標
+     * @param originY マップの左上のY座標
+     * @param magnification 拡大倍率
+     */
+    @Override
+    void render(Graphics g, int originX, int originY, double magnification) {
+        int w = (int) (getWidth() * magnification) / col;
+        int h = (int) (getHeight() * magnification) / row;
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(originX, originY, w * col, h * row);
+        }
+        Rectangle cells = getVisibleCells(clip, originX, originY, w, h);
+        if (cells == null) {
+            return;
+        }
+
+        Color color = g.getColor();
+        for (int k = cells.y; k < cells.y + cells.height; k++) {
+            for (int j = cells.x; j < cells.x + cells.width; j++) {
+                int top = topLayers.get(j, k);
+                if (top != TopLayerIndex.NONE) {
+                    drawCell(g, renderImageCache, j, k, 0, top, originX + w*j, originY + h*k, w, h, false);
+                }
+            }
+        }
+        if (entities != null) {
+            drawEntities(g, renderSpriteCache, cells, originX, originY, w, h, new ArrayList<>());
+        }
+        g.setColor(color);
+    }
+
+    /**
+     * 静的なレイヤーを焼き付けた画像を描画する
+     *
+     * まだ焼き付けていないブロックはここで焼き付ける
+     *
+     * @param g グラフィックオブジェクト
+     * @param cells 描画するタイルの範囲
+     * @param w 描画されるときのタイル１枚の幅
+     * @param h 描画されるときのタイル１枚の高さ
+     * @return 新たに焼き付けたブロックの数
+     */
+    private int drawComposite(Graphics g, Rectangle cells, int w, int h) {
+        composite.resize(w, h);
+        int bc = composite.getBlockCols();
+        int br = composite.getBlockRows();
+        int baked = 0;
 
-        for (Image[][] imgs: tiledImages) {
-            for (int j = 0; j < imgs.length; j++) {
-                for (int k = 0; k < imgs[j].length; k++) {
-                    if (imgs[j][k]!=null) {
-                        g.drawImage(
-                                imgs[j][k].getScaledInstance(w, h, Image.SCALE_SMOOTH),
-                                posX + w*j,
-                                posY + h*k,
-                                null
-                        );
+        for (int by = cells.y / br; by <= (cells.y + cells.height - 1) / br; by++) {
+            for (int bx = cells.x / bc; bx <= (cells.x + cells.width - 1) / bc; bx++) {
+                BufferedImage block = composite.get(bx, by);
+                if (block == null) {
+                    block = bakeBlock(bx * bc, by * br, bc, br, w, h);
+                    composite.put(bx, by, block);
+                    baked++;
+                }
+                g.drawImage(block, posX + w*bx*bc, posY + h*by*br, null);
+            }
+        }
+        return baked;
+    }
+
+    /**
+     * 静的なレイヤーを１つの画像に焼き付ける
+     *
+     * @param x 焼き付ける範囲の左端の列
+     * @param y 焼き付ける範囲の上端の行
+     * @param cols 焼き付ける範囲の列数
+     * @param rows 焼き付ける範囲の行数
+     * @param w 描画されるときのタイル１枚の幅
+     * @param h 描画されるときのタイル１枚の高さ
+     * @return 焼き付けた画像
+     */
+    private BufferedImage bakeBlock(int x, int y, int cols, int rows, int w, int h) {
+        cols = Math.min(cols, col - x);
+        rows = Math.min(rows, row - y);
+        BufferedImage block = new BufferedImage(w * cols, h * rows, BufferedImage.TYPE_INT_ARGB);
+        Graphics g = block.getGraphics();
+        for (int k = 0; k < rows; k++) {
+            for (int j = 0; j < cols; j++) {
+                int top = Math.min(topLayers.get(x + j, y + k), staticLayers - 1);
+                if (top != TopLayerIndex.NONE) {
+                    drawCell(g, scaledImageCache, x + j, y + k, 0, top, w*j, h*k, w, h, true);
+                }
+            }
+        }
+        g.dispose();
+        return block;
+    }
+
+    /**
+     * １つのタイルの指定された範囲のレイヤーを描画する
+     *
+     * 不透明な画像より下のレイヤーは隠れるので描画しない.
+     * タイルが小さいときは画像の代わりに平均の色で塗りつぶす.
+     * 読み込み中の画像は仮の色で塗りつぶす.
+     *
+     * @param g グラフィックオブジェクト
+     * @param cache 縮尺済みの画像のキャッシュ
+     * @param x タイルのx座標
+     * @param y タイルのy座標
+     * @param lowest 描画する一番下のレイヤー
+     * @param top 描画する一番上のレイヤー
+     * @param px 描画する位置のx座標
+     * @param py 描画する位置のy座標
+     * @param w 描画されるときのタイル１枚の幅
+     * @param h 描画されるときのタイル１枚の高さ
+     * @param isTracked 読み込み中の画像を描画したタイルを読み込み後に再描画するか
+     */
+    private void drawCell(Graphics g, ImageScaler cache, int x, int y, int lowest, int top, int px, int py, int w, int h, boolean isTracked) {
+        int bottom = top;
+        while (bottom > lowest && !isOpaque(tiledImages.get(bottom, x, y))) {
+            bottom--;
+        }
+        for (int i = bottom; i <= top; i++) {
+            Image img = tiledImages.get(i, x, y);
+            if (img instanceof AnimatedTile) {
+                img = ((AnimatedTile) img).getFrame(animationTime);
+            }
+            if (img instanceof DeferredImage) {
+                DeferredImage deferred = (DeferredImage) img;
+                img = deferred.get();
+                if (img == null) {
+                    if (isTracked && !deferred.isDone()) {
+                        trackPending(deferred, i, x, y);
                     }
+                    g.setColor(DeferredImage.PLACEHOLDER_COLOR);
+                    g.fillRect(px, py, w, h);
+                    continue;
+                }
+            }
+            if (img!=null && (w < MIN_IMAGE_SIZE || h < MIN_IMAGE_SIZE)) {
+                g.setColor(cache.getAverageColor(img));
+                g.fillRect(px, py, w, h);
+            } else if (img!=null) {
+                Image scaled = cache.get(img, w, h);
+                if (scaled != null) {
+                    g.drawImage(scaled, px, py, null);
                 }
             }
         }
     }
 
+    /**
+     * 指定されたタイルの範囲と重なる {@code Entity} を描画する
+     *
+     * 下端が上にあるものから順に描画し, 手前のものが上に重なるようにする
+     *
+     * @param g グラフィックオブジェクト
+     * @param cache 縮尺済みの画像のキャッシュ
+     * @param cells 描画するタイルの範囲
+     * @param originX マップの左上のX座標
+     * @param originY マップの左上のY座標
+     * @param w 描画されるときのタイル１枚の幅
+     * @param h 描画されるときのタイル１枚の高さ
+     * @param visible {@code Entity} を集めるリスト
+     */
+    private void drawEntities(Graphics g, ImageScaler cache, Rectangle cells, int originX, int originY, int w, int h, List<Entity> visible) {
+        entities.query(cells.x * unitWidth, cells.y * unitHeight, cells.width * unitWidth, cells.height * unitHeight, visible);
+        visible.sort(EntityLayer.DRAW_ORDER);
+        for (Entity e: visible) {
+            Image img = e.getSprite();
+            if (img instanceof AnimatedTile) {
+                img = ((AnimatedTile) img).getFrame(animationTime);
+            }
+            if (img instanceof DeferredImage) {
+                img = ((DeferredImage) img).get();
+            }
+            int ew = (int) ((long) e.getWidth() * w / unitWidth);
+            int eh = (int) ((long) e.getHeight() * h / unitHeight);
+            if (img == null || ew <= 0 || eh <= 0) {
+                continue;
+            }
+            int px = originX + (int) Math.floorDiv((long) e.getX() * w, unitWidth);
+            int py = originY + (int) Math.floorDiv((long) e.getY() * h, unitHeight);
+            if (ew < MIN_IMAGE_SIZE || eh < MIN_IMAGE_SIZE) {
+                g.setColor(cache.getAverageColor(img));
+                g.fillRect(px, py, ew, eh);
+            } else {
+                Image scaled = cache.get(img, ew, eh);
+                if (scaled != null) {
+                    g.drawImage(scaled, px, py, null);
+                }
+            }
+        }
+        visible.clear();
+    }
+
+    /**
+     * {@link #draw(Graphics)} でこれまでに縮尺した画像の数を取得
+     *
+     * @return 縮尺した画像の数
+     */
+    long getScaleCount() {
+        return scaledImageCache.getScaleCount() + spriteImageCache.getScaleCount();
+    }
+
+    /**
+     * 描画範囲と重なるタイルの範囲を取得する
+     *
+     * @param clip 描画範囲
+     * @param originX マップの左上のX座標
+     * @param originY マップの左上のY座標
+     * @param w 描画されるときのタイル１枚の幅
+     * @param h 描画されるときのタイル１枚の高さ
+     * @return 重なるタイルの列と行の範囲, 重なるタイルがないときは {@code null}
+     */
+    Rectangle getVisibleCells(Rectangle clip, int originX, int originY, int w, int h) {
+        if (w <= 0 || h <= 0 || clip.width <= 0 || clip.height <= 0) {
+            return null;
+        }
+        int colFrom = Math.max(0, Math.floorDiv(clip.x - originX, w));
+        int colTo = Math.min(col - 1, Math.floorDiv(clip.x + clip.width - 1 - originX, w));
+        int rowFrom = Math.max(0, Math.floorDiv(clip.y - originY, h));
+        int rowTo = Math.min(row - 1, Math.floorDiv(clip.y + clip.height - 1 - originY, h));
+        if (colFrom > colTo || rowFrom > rowTo) {
+            return null;
+        }
+        return new Rectangle(colFrom, rowFrom, colTo - colFrom + 1, rowTo - rowFrom + 1);
+    }
+
+    /**
+     * グラフィックオブジェクトの描画範囲を取得する
+     *
+     * 描画範囲が設定されていないときはマップ全体を返す
+     *
+     * @param g グラフィックオブジェクト
+     * @return 描画範囲
+     */
+    Rectangle getClip(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(posX, posY, getDrawableWidth(), getDrawableHeight());
+        }
+        return clip;
+    }
+
+    /**
+     * 拡大倍率が変更されたときに呼ばれる
+     *
+     * 縮尺済みの画像のキャッシュを破棄する
+     */
+    @Override
+    protected void magnificationChanged() {
+        super.magnificationChanged();
+        scaledImageCache.invalidate();
+        spriteImageCache.invalidate();
+        composite.invalidate();
+    }
+
+    /**
+     * 下から指定された数のレイヤーを静的なレイヤーとして焼き付ける
+     *
+     * 静的なレイヤーはブロックごとに１枚の画像に焼き付けて描画し,
+     * レイヤーが変更されるか拡大倍率が変わるまで焼き付けた画像を使い回す.
+     * それより上のレイヤーはタイルごとに描画する.
+     *
+     * @param count 静的なレイヤーの数
+     */
+    public void setStaticLayers(int count) {
+        staticLayers = Math.max(0, Math.min(count, tiledImages.getLayerCount()));
+        composite.invalidate();
+    }
+
+    /**
+     * 静的なレイヤーの数を取得
+     *
+     * @return 静的なレイヤーの数
+     */
+    public int getStaticLayers() {
+        return staticLayers;
+    }
+
     /**
      * 画像を指定されたタイルに追加する
      *
@@ -117,7 +652,20 @@ public class TableMap extends TiledMap {
      * @param y 追加する位置にy座標
      */
     public void addImage(Image img, int layer, int x, int y) {
-        tiledImages[layer][x][y] = img;
+        boolean wasAnimated = isAnimated();
+        if (img instanceof AnimatedTile || wasAnimated) {
+            animatedCells.set(tiledImages.get(layer, x, y), img, layer, x, y);
+        }
+        tiledImages.set(layer, x, y, img);
+        if (img == null) {
+            if (topLayers.get(x, y) == layer) {
+                updateTopLayer(x, y, layer);
+            }
+        } else if (topLayers.get(x, y) < layer) {
+            topLayers.set(x, y, layer);
+        }
+        tilesChanged(layer, layer, x, y, 1, 1);
+        animationStarted(wasAnimated);
     }
 
     /**
@@ -130,7 +678,14 @@ public class TableMap extends TiledMap {
      * @param y 追加する位置にy座標
      */
     public void removeImage(int layer, int x, int y) {
-        tiledImages[layer][x][y] = null;
+        if (!animatedCells.isEmpty()) {
+            animatedCells.set(tiledImages.get(layer, x, y), null, layer, x, y);
+        }
+        tiledImages.set(layer, x, y, null);
+        if (topLayers.get(x, y) == layer) {
+            updateTopLayer(x, y, layer);
+        }
+        tilesChanged(layer, layer, x, y, 1, 1);
     }
 
     /**
@@ -141,13 +696,14 @@ public class TableMap extends TiledMap {
      * @param img 埋める画像
      */
     public void fill(Image img) {
-        for (int i=0;i<tiledImages.length; i++) {
-            for (int j=0; j<tiledImages[i].length; j++) {
-                for (int k=0; k<tiledImages[i][j].length; k++) {
-                    tiledImages[i][j][k] = img;
-                }
-            }
+        boolean wasAnimated = isAnimated();
+        for (int i=0;i<tiledImages.getLayerCount(); i++) {
+            tiledImages.fill(i, img);
+            animatedCells.fill(i, img);
         }
+        topLayers.fill(img == null ? TopLayerIndex.NONE : tiledImages.getLayerCount() - 1);
+        tilesChanged(0, tiledImages.getLayerCount() - 1, 0, 0, col, row);
+        animationStarted(wasAnimated);
     }
 
     /**
@@ -159,11 +715,12 @@ public class TableMap extends TiledMap {
      * @param layer 埋めるレイヤー
      */
     public void fill(Image img, int layer) {
-        for (int i=0; i<tiledImages[layer].length; i++) {
-            for (int j=0; j<tiledImages[layer][i].length; j++) {
-                tiledImages[layer][i][j] = img;
-            }
-        }
+        boolean wasAnimated = isAnimated();
+        tiledImages.fill(layer, img);
+        animatedCells.fill(layer, img);
+        updateTopLayers(img != null, layer);
+        tilesChanged(layer, layer, 0, 0, col, row);
+        animationStarted(wasAnimated);
     }
 
     /**
@@ -175,23 +732,512 @@ public class TableMap extends TiledMap {
      * @param img 埋める画像
      * @param layer 埋めるレイヤー
      * @param isDeepCopy 元のImageオブジェクトを元に新しいImageオブジェクトを作成するか
+     * @throws IllegalArgumentException {@code isDeepCopy} が {@code true} で,
+     *     {@code img} が読み込みが終わっていない {@link DeferredImage}, または {@link AnimatedTile} のとき
      */
     public void fill(Image img, int layer, boolean isDeepCopy) {
+        boolean wasAnimated = isAnimated();
         if (isDeepCopy) {
-            for (int i=0; i<tiledImages[layer].length; i++) {
-                for (int j=0; j<tiledImages[layer][i].length; j++) {
-                    tiledImages[layer][i][j] = deepCopy(img);
+            for (int i=0; i<col; i++) {
+                for (int j=0; j<row; j++) {
+                    tiledImages.set(layer, i, j, deepCopy(img));
                 }
             }
+            animatedCells.fill(layer, null);
         } else {
-            for (int i=0; i<tiledImages[layer].length; i++) {
-                for (int j=0; j<tiledImages[layer][i].length; j++) {
-                    tiledImages[layer][i][j] = img;
+            tiledImages.fill(layer, img);
+            animatedCells.fill(layer, img);
+        }
+        updateTopLayers(img != null, layer);
+        tilesChanged(layer, layer, 0, 0, col, row);
+        animationStarted(wasAnimated);
+    }
+
+    /**
+     * すべてのレイヤーの変更を受け取るリスナーを追加する
+     *
+     * @param listener 追加するリスナー
+     */
+    public void addMapChangeListener(MapChangeListener listener) {
+        addChangeRegistration(new ChangeRegistration(listener, -1L));
+    }
+
+    /**
+     * 指定されたレイヤーの変更だけを受け取るリスナーを追加する
+     *
+     * 64番目以降のレイヤーは区別せず, どれか１つを指定するとすべての変更を受け取る
+     *
+     * @param listener 追加するリスナー
+     * @param layers 関心のあるレイヤー
+     */
+    public void addMapChangeListener(MapChangeListener listener, int... layers) {
+        long mask = 0;
+        for (int layer: layers) {
+            mask |= layerMask(layer, layer);
+        }
+        addChangeRegistration(new ChangeRegistration(listener, mask));
+    }
+
+    /**
+     * リスナーを取り除く
+     *
+     * @param listener 取り除くリスナー
+     */
+    public synchronized void removeMapChangeListener(MapChangeListener listener) {
+        ChangeRegistration[] registrations = changeListeners;
+        for (int i = 0; i < registrations.length; i++) {
+            if (registrations[i].listener == listener) {
+                ChangeRegistration[] removed = new ChangeRegistration[registrations.length - 1];
+                System.arraycopy(registrations, 0, removed, 0, i);
+                System.arraycopy(registrations, i + 1, removed, i, registrations.length - i - 1);
+                changeListeners = removed;
+                return;
+            }
+        }
+    }
+
+    /**
+     * リスナーの登録を追加する
+     *
+     * @param registration 追加する登録
+     */
+    private synchronized void addChangeRegistration(ChangeRegistration registration) {
+        ChangeRegistration[] registrations = Arrays.copyOf(changeListeners, changeListeners.length + 1);
+        registrations[registrations.length - 1] = registration;
+        changeListeners = registrations;
+    }
+
+    /**
+     * レイヤーの範囲をビットの集合で表す
+     *
+     * 64番目以降のレイヤーは最上位のビットで表す
+     *
+     * @param fromLayer 一番下のレイヤー
+     * @param toLayer 一番上のレイヤー
+     * @return ビットの集合
+     */
+    private static long layerMask(int fromLayer, int toLayer) {
+        int from = Math.min(Math.max(fromLayer, 0), 63);
+        int to = Math.min(Math.max(toLayer, 0), 63);
+        return (-1L >>> (63 - to)) & (-1L << from);
+    }
+
+    /**
+     * リスナーと関心のあるレイヤー
+     */
+    private static final class ChangeRegistration {
+        /**
+         * リスナー
+         */
+        private final MapChangeListener listener;
+        /**
+         * 関心のあるレイヤーのビットの集合
+         */
+        private final long layerMask;
+
+        /**
+         * コンストラクタ
+         *
+         * @param listener リスナー
+         * @param layerMask 関心のあるレイヤーのビットの集合
+         */
+        ChangeRegistration(MapChangeListener listener, long layerMask) {
+            this.listener = listener;
+            this.layerMask = layerMask;
+        }
+    }
+
+    /**
+     * 複数の変更をまとめて行う
+     *
+     * {@code action} の中の変更はすぐにマップに反映するが,
+     * 変更された範囲への追加, 焼き付けた画像の破棄, {@link MapChangeListener} への通知は
+     * 終わったときに全体を囲む範囲で１回だけ行い, 再描画を１回だけ要求する.
+     * 入れ子にしたときは一番外側が終わったときに行う.
+     *
+     * <pre>{@code
+     * map.edit(batch -> {
+     *     batch.fill(grass, 0);
+     *     batch.addImage(tree, 1, 3, 4);
+     * });
+     * }</pre>
+     *
+     * @param action 変更する処理
+     */
+    public void edit(Consumer<Batch> action) {
+        if (batchDepth++ == 0) {
+            batchFromLayer = Integer.MAX_VALUE;
+            batchToLayer = Integer.MIN_VALUE;
+            batchLeft = Integer.MAX_VALUE;
+            batchTop = Integer.MAX_VALUE;
+            batchRight = Integer.MIN_VALUE;
+            batchBottom = Integer.MIN_VALUE;
+        }
+        try {
+            action.accept(new Batch());
+        } finally {
+            if (--batchDepth == 0 && batchLeft < batchRight) {
+                cellsChanged(batchFromLayer, batchToLayer,
+                        batchLeft, batchTop, batchRight - batchLeft, batchBottom - batchTop);
+                fireMapChanged(batchFromLayer, batchToLayer,
+                        batchLeft, batchTop, batchRight - batchLeft, batchBottom - batchTop);
+                requestRepaint();
+            }
+        }
+    }
+
+    /**
+     * {@link #edit(Consumer)} の中で変更する操作
+     *
+     * それぞれの操作は {@code TableMap} の同じ名前のメソッドと同じ
+     */
+    public final class Batch {
+        /**
+         * コンストラクタ
+         */
+        private Batch() {}
+
+        /**
+         * 画像を指定されたタイルに追加する
+         *
+         * @param img 追加する画像
+         * @param layer 追加するレイヤー
+         * @param x 追加する位置のx座標
+         * @param y 追加する位置にy座標
+         */
+        public void addImage(Image img, int layer, int x, int y) {
+            TableMap.this.addImage(img, layer, x, y);
+        }
+
+        /**
+         * 指定されたタイルの画像を除去する
+         *
+         * @param layer 除去するレイヤー
+         * @param x 除去する位置のx座標
+         * @param y 除去する位置にy座標
+         */
+        public void removeImage(int layer, int x, int y) {
+            TableMap.this.removeImage(layer, x, y);
+        }
+
+        /**
+         * 指定された画像ですべてのタイルを埋める
+         *
+         * @param img 埋める画像
+         */
+        public void fill(Image img) {
+            TableMap.this.fill(img);
+        }
+
+        /**
+         * 指定されたレイヤーのすべてのタイルを指定された画像で埋める
+         *
+         * @param img 埋める画像
+         * @param layer 埋めるレイヤー
+         */
+        public void fill(Image img, int layer) {
+            TableMap.this.fill(img, layer);
+        }
+
+        /**
+         * 指定されたレイヤーのすべてのタイルを指定された画像で埋める
+         *
+         * @param img 埋める画像
+         * @param layer 埋めるレイヤー
+         * @param isDeepCopy 元のImageオブジェクトを元に新しいImageオブジェクトを作成するか
+         */
+        public void fill(Image img, int layer, boolean isDeepCopy) {
+            TableMap.this.fill(img, layer, isDeepCopy);
+        }
+    }
+
+    /**
+     * アニメーションするタイルを置いているかを判定
+     *
+     * @return 置いているときは {@code true}
+     */
+    @Override
+    protected boolean isAnimated() {
+        return !animatedCells.isEmpty();
+    }
+
+    /**
+     * アニメーションするタイルを置いていない状態から置いた状態になったときに再描画を要求する
+     *
+     * ビューはこれを受けて {@link #update()} を呼び始める
+     *
+     * @param wasAnimated 変更の前にアニメーションするタイルを置いていたか
+     */
+    private void animationStarted(boolean wasAnimated) {
+        if (!wasAnimated && isAnimated()) {
+            requestRepaint();
+        }
+    }
+
+    /**
+     * アニメーションするタイルのコマを進める
+     *
+     * 全体で共通の時計から時刻を取得し, コマが切り替わったタイルだけを変更された範囲に加える
+     */
+    @Override
+    protected void update() {
+        super.update();
+        animationTime = AnimatedTile.clockMillis();
+        animatedCells.advance(animationTime, this::cellsChanged);
+    }
+
+    /**
+     * タイルの上に描画する {@code Entity} のレイヤーを取得する
+     *
+     * 初めて呼ばれたときに作成する
+     *
+     * @return {@code Entity} のレイヤー
+     */
+    public EntityLayer getEntities() {
+        if (entities == null) {
+            int tiles = ENTITY_BUCKET_TILES;
+            while ((long) ((col + tiles - 1) / tiles) * ((row + tiles - 1) / tiles) > MAX_ENTITY_BUCKETS) {
+                tiles *= 2;
+            }
+            entities = new EntityLayer(col * unitWidth, row * unitHeight,
+                    tiles * unitWidth, tiles * unitHeight, this::entitiesChanged);
+        }
+        return entities;
+    }
+
+    /**
+     * {@code Entity} の描画が変わったときに呼ばれる
+     *
+     * 範囲と重なるタイルを変更された範囲に加える
+     *
+     * @param x 範囲の左端のx座標
+     * @param y 範囲の上端のy座標
+     * @param width 範囲の幅
+     * @param height 範囲の高さ
+     */
+    private void entitiesChanged(int x, int y, int width, int height) {
+        int left = Math.max(0, Math.floorDiv(x, unitWidth));
+        int top = Math.max(0, Math.floorDiv(y, unitHeight));
+        int right = Math.min(col, Math.floorDiv(x + width - 1, unitWidth) + 1);
+        int bottom = Math.min(row, Math.floorDiv(y + height - 1, unitHeight) + 1);
+        if (left < right && top < bottom) {
+            int layer = tiledImages.getLayerCount();
+            cellsChanged(layer, layer, left, top, right - left, bottom - top);
+        }
+    }
+
+    /**
+     * 前回呼ばれてから変更された領域を取得する
+     *
+     * 表示位置や拡大倍率が変わったときはマップ全体の再描画が必要なので {@code null} を返す
+     *
+     * @return 変更されたタイルを含むウィンドウ内の領域, 変更がないときは空の領域
+     */
+    @Override
+    Rectangle takeDirtyRegion() {
+        applyLoadedImages();
+        Rectangle view = new Rectangle(posX, posY, getDrawableWidth(), getDrawableHeight());
+        boolean isMoved = !view.equals(lastView);
+        lastView = view;
+
+        Rectangle region = null;
+        if (!isMoved) {
+            region = new Rectangle();
+            if (dirtyLeft < dirtyRight) {
+                int w = getDrawableWidth() / col;
+                int h = getDrawableHeight() / row;
+                region.setBounds(
+                        posX + w*dirtyLeft,
+                        posY + h*dirtyTop,
+                        w*(dirtyRight - dirtyLeft),
+                        h*(dirtyBottom - dirtyTop)
+                );
+            }
+        }
+        clearDirty();
+        return region;
+    }
+
+    /**
+     * タイルが変更されたときに呼ばれる
+     *
+     * 変更された範囲に加え, 静的なレイヤーが変更されたときは焼き付けた画像を破棄する
+     *
+     * @param fromLayer 変更された一番下のレイヤー
+     * @param toLayer 変更された一番上のレイヤー
+     * @param x 範囲の左端の列
+     * @param y 範囲の上端の行
+     * @param width 範囲の列数
+     * @param height 範囲の行数
+     */
+    private void cellsChanged(int fromLayer, int toLayer, int x, int y, int width, int height) {
+        if (fromLayer < staticLayers) {
+            composite.invalidate(x, y, width, height);
+        }
+        dirtyLeft = Math.min(dirtyLeft, x);
+        dirtyTop = Math.min(dirtyTop, y);
+        dirtyRight = Math.max(dirtyRight, x + width);
+        dirtyBottom = Math.max(dirtyBottom, y + height);
+    }
+
+    /**
+     * タイルの画像が変更されたときに呼ばれる
+     *
+     * 描画の更新に加えリスナーに通知する.
+     * {@link #edit(Consumer)} の中ではまとめて変更している範囲に加えるだけにする
+     *
+     * @param fromLayer 変更された一番下のレイヤー
+     * @param toLayer 変更された一番上のレイヤー
+     * @param x 範囲の左端の列
+     * @param y 範囲の上端の行
+     * @param width 範囲の列数
+     * @param height 範囲の行数
+     */
+    private void tilesChanged(int fromLayer, int toLayer, int x, int y, int width, int height) {
+        if (batchDepth > 0) {
+            batchFromLayer = Math.min(batchFromLayer, fromLayer);
+            batchToLayer = Math.max(batchToLayer, toLayer);
+            batchLeft = Math.min(batchLeft, x);
+            batchTop = Math.min(batchTop, y);
+            batchRight = Math.max(batchRight, x + width);
+            batchBottom = Math.max(batchBottom, y + height);
+            return;
+        }
+        cellsChanged(fromLayer, toLayer, x, y, width, height);
+        fireMapChanged(fromLayer, toLayer, x, y, width, height);
+    }
+
+    /**
+     * 変更に関心のあるレイヤーと重なるリスナーに通知する
+     *
+     * 通知する値は使い回し, リスナーの中でさらに変更されたときだけ新しく作成する
+     *
+     * @param fromLayer 変更された一番下のレイヤー
+     * @param toLayer 変更された一番上のレイヤー
+     * @param x 範囲の左端の列
+     * @param y 範囲の上端の行
+     * @param width 範囲の列数
+     * @param height 範囲の行数
+     */
+    private void fireMapChanged(int fromLayer, int toLayer, int x, int y, int width, int height) {
+        ChangeRegistration[] registrations = changeListeners;
+        if (registrations.length == 0) {
+            return;
+        }
+        long mask = layerMask(fromLayer, toLayer);
+        MapChangeEvent event = isDispatching ? new MapChangeEvent() : changeEvent;
+        boolean wasDispatching = isDispatching;
+        isDispatching = true;
+        try {
+            for (ChangeRegistration r: registrations) {
+                if ((r.layerMask & mask) != 0) {
+                    r.listener.mapChanged(this, event.set(fromLayer, toLayer, x, y, width, height));
+                }
+            }
+        } finally {
+            isDispatching = wasDispatching;
+        }
+    }
+
+    /**
+     * 変更された範囲を空にする
+     */
+    private void clearDirty() {
+        dirtyLeft = Integer.MAX_VALUE;
+        dirtyTop = Integer.MAX_VALUE;
+        dirtyRight = Integer.MIN_VALUE;
+        dirtyBottom = Integer.MIN_VALUE;
+    }
+
+    /**
+     * 読み込み中の画像を仮の表示で描画したタイルを記録する
+     *
+     * 画像ごとに初めて記録するときに, 読み込みが終わったら再描画を要求するようにする
+     *
+     * @param deferred 読み込み中の画像
+     * @param layer レイヤー
+     * @param x x座標
+     * @param y y座標
+     */
+    private void trackPending(DeferredImage deferred, int layer, int x, int y) {
+        Map<Integer, Set<Long>> layers = pendingCells.get(deferred);
+        if (layers == null) {
+            layers = new HashMap<>();
+            pendingCells.put(deferred, layers);
+            deferred.whenDone(() -> {
+                loadedImages.add(deferred);
+                requestRepaint();
+            });
+        }
+        Set<Long> cells = layers.get(layer);
+        if (cells == null) {
+            cells = new HashSet<>();
+            layers.put(layer, cells);
+        }
+        cells.add((long) y << 32 | x);
+    }
+
+    /**
+     * 読み込みが終わった画像を仮の表示で描画したタイルを変更された範囲に加える
+     */
+    private void applyLoadedImages() {
+        DeferredImage deferred;
+        while ((deferred = loadedImages.poll()) != null) {
+            Map<Integer, Set<Long>> layers = pendingCells.remove(deferred);
+            if (layers == null) {
+                continue;
+            }
+            for (Map.Entry<Integer, Set<Long>> e: layers.entrySet()) {
+                int layer = e.getKey();
+                for (long cell: e.getValue()) {
+                    cellsChanged(layer, layer, (int) cell, (int) (cell >>> 32), 1, 1);
                 }
             }
         }
     }
 
+    /**
+     * レイヤー全体を埋めたあとにすべてのタイルの一番上のレイヤーの索引を更新する
+     *
+     * @param isFilled 画像で埋めたときは {@code true}, 画像を取り除いたときは {@code false}
+     * @param layer 埋めたレイヤー
+     */
+    private void updateTopLayers(boolean isFilled, int layer) {
+        if (!topLayers.isStored()) {
+            return;
+        }
+        for (int j=0; j<row; j++) {
+            for (int i=0; i<col; i++) {
+                int top = topLayers.get(i, j);
+                if (isFilled) {
+                    if (top < layer) {
+                        topLayers.set(i, j, layer);
+                    }
+                } else if (top == layer) {
+                    updateTopLayer(i, j, layer);
+                }
+            }
+        }
+    }
+
+    /**
+     * 指定されたレイヤーより下を調べてタイルの一番上のレイヤーの索引を更新する
+     *
+     * @param x x座標
+     * @param y y座標
+     * @param above 調べるレイヤーの１つ上のレイヤー
+     */
+    private void updateTopLayer(int x, int y, int above) {
+        if (!topLayers.isStored()) {
+            return;
+        }
+        int i = above - 1;
+        while (i >= 0 && tiledImages.get(i, x, y) == null) {
+            i--;
+        }
+        topLayers.set(x, y, i);
+    }
+
     /**
      * 表示されたウィンドウ内の位置から対応する画像を返す
      *
@@ -202,20 +1248,72 @@ public class TableMap extends TiledMap {
      * @return 位置に対応する画像
      */
     protected Image getDisplayedTile(int x, int y) throws NoSuchElementException {
+        int cell = getCellIndex(x, y);
+        if (cell == NO_CELL) {
+            throw new NoSuchElementException("範囲外");
+        }
+        return top(getCellX(cell), getCellY(cell));
+    }
+
+    /**
+     * 表示されたウィンドウ内の位置から対応する画像を返す
+     *
+     * {@link #getDisplayedTile(int, int)} と異なり範囲外のときも例外を投げない
+     *
+     * @param x ウィンドウ内の位置のx座標
+     * @param y ウィンドウ内の位置のy座標
+     * @return 位置に対応する画像, 範囲外または画像がないときは {@code null}
+     */
+    protected Image findDisplayedTile(int x, int y) {
+        int cell = getCellIndex(x, y);
+        if (cell == NO_CELL) {
+            return null;
+        }
+        return top(getCellX(cell), getCellY(cell));
+    }
+
+    /**
+     * 表示されたウィンドウ内の位置から対応するタイルの番号を返す
+     *
+     * タイルの番号は {@code y * 列数 + x} で, 位置と拡大倍率から直接計算する
+     *
+     * @param x ウィンドウ内の位置のx座標
+     * @param y ウィンドウ内の位置のy座標
+     * @return タイルの番号, 範囲外のときは {@link #NO_CELL}
+     */
+    protected int getCellIndex(int x, int y) {
         int w = getDrawableWidth() / col;
         int h = getDrawableHeight() / row;
+        if (w <= 0 || h <= 0) {
+            return NO_CELL;
+        }
 
-        for (int j = 0; j < col; j++) {
-            if (posX + w*j <= x && x < posX + w*(j+1)) {
-                for (int k = 0; k < row; k++) {
-                    if (posY + h*k <= y && y < posY + h*(k+1)) {
-                        return top(j,k);
-                    }
-                }
-            }
+        int j = Math.floorDiv(x - posX, w);
+        int k = Math.floorDiv(y - posY, h);
+        if (j < 0 || j >= col || k < 0 || k >= row) {
+            return NO_CELL;
         }
+        return k * col + j;
+    }
+
+    /**
+     * タイルの番号からx座標を取得
+     *
+     * @param cell タイルの番号
+     * @return x座標
+     */
+    protected int getCellX(int cell) {
+        return cell % col;
+    }
 
-        throw new NoSuchElementException("範囲外");
+    /**
+     * タイルの番号からy座標を取得
+     *
+     * @param cell タイルの番号
+     * @return y座標
+     */
+    protected int getCellY(int cell) {
+        return cell / col;
     }
 
     /**
@@ -233,6 +1331,33 @@ public class TableMap extends TiledMap {
         return col;
     }
 
+    /**
+     * 一枚のタイルの幅を取得
+     *
+     * @return 一枚のタイルの幅
+     */
+    int getUnitWidth() {
+        return unitWidth;
+    }
+
+    /**
+     * 一枚のタイルの高さを取得
+     *
+     * @return 一枚のタイルの高さ
+     */
+    int getUnitHeight() {
+        return unitHeight;
+    }
+
+    /**
+     * 画像を保持する記憶領域を取得
+     *
+     * @return 画像を保持する記憶領域
+     */
+    LayerStorage getStorage() {
+        return tiledImages;
+    }
+
     /**
      * 指定された位置のタイルの複数のレイヤーのうち {@code null} でない一番上の画像が返される
      *
@@ -241,19 +1366,31 @@ public class TableMap extends TiledMap {
      * @return {@code null} でない一番上の画像
      */
     protected Image top(int x, int y) {
-        for (int i=tiledImages.length-1; i>=0; i--) {
-            if (tiledImages[i][x][y] != null) {
-                return tiledImages[i][x][y];
-            }
-        }
-
-        return null;
+        int top = topLayers.get(x, y);
+        return top == TopLayerIndex.NONE ? null : tiledImages.get(top, x, y);
     }
 
     //----------------
     //staticオブジェクト
     //----------------
 
+    /**
+     * 画像が不透明であるかを判定
+     *
+     * @param img 画像
+     * @return 透過する画素を持たない画像のときは {@code true}
+     */
+    static boolean isOpaque(Image img) {
+        if (img instanceof AnimatedTile) {
+            return ((AnimatedTile) img).isOpaque();
+        }
+        if (img instanceof DeferredImage) {
+            img = ((DeferredImage) img).get();
+        }
+        return img instanceof Transparency
+                && ((Transparency) img).getTransparency() == Transparency.OPAQUE;
+    }
+
     /**
      * Imageオブジェクトのディープコピーを作成する
      *
@@ -261,6 +1398,7 @@ public class TableMap extends TiledMap {
      *
      * @param img コピー元のImageオブジェクト
      * @return コピー先のImageオブジェクト
+     * @throws IllegalArgumentException 読み込みが終わっていない {@link DeferredImage}, または {@link AnimatedTile} のとき
      */
     public static BufferedImage deepCopy(Image img) {
         BufferedImage bi = createBufferedImage(img);
@@ -275,10 +1413,24 @@ public class TableMap extends TiledMap {
      *
      * {@see http://www.ne.jp/asahi/hishidama/home/tech/java/image}
      *
+     * 読み込みが終わった {@link DeferredImage} は読み込んだ画像を変換する.
+     * コマが切り替わる {@link AnimatedTile} は１枚の画像にできないので変換しない
+     *
      * @param img Imageオブジェクト
      * @return BufferedImageオブジェクト
+     * @throws IllegalArgumentException 読み込みが終わっていない {@link DeferredImage}, または {@link AnimatedTile} のとき
      */
     public static BufferedImage createBufferedImage(Image img) {
+        if (img instanceof AnimatedTile) {
+            throw new IllegalArgumentException("コマが切り替わる画像は変換できない");
+        }
+        if (img instanceof DeferredImage) {
+            Image loaded = ((DeferredImage) img).get();
+            if (loaded == null) {
+                throw new IllegalArgumentException("読み込みが終わっていない画像は変換できない");
+            }
+            img = loaded;
+        }
         if (img instanceof BufferedImage) {
             return (BufferedImage)img;
         }
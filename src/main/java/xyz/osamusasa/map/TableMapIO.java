@@ -0,0 +1,386 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * {@code TableMap} をバイナリ形式で保存, 読み込みする
+ *
+ * タイルは画像ではなく {@link TilePalette} のタイルIDで保存するので,
+ * 読み込むときは保存したときと同じ {@code BitmapData} かパレットを指定する.
+ *
+ * <pre>
+ * int    マジックナンバー "TMAP"
+ * short  バージョン
+ * short  予約 (0)
+ * int    レイヤーの数, 行数, 列数, タイルの幅, タイルの高さ, 静的なレイヤーの数, 最大のタイルID
+ * レイヤーごとに
+ *   byte   符号化方式 (0: そのまま, 1: ランレングス)
+ *   そのまま     : 行ごとに並べた unsigned short のタイルID
+ *   ランレングス : int 連の数, 連ごとに unsigned short のタイルIDと int の長さ
+ * </pre>
+ * 数値はすべてビッグエンディアン.
+ * 背景のように同じタイルが続くレイヤーはランレングスで, そうでないレイヤーはそのまま保存する.
+ */
+public final class TableMapIO {
+    /**
+     * マジックナンバー
+     */
+    private static final int MAGIC = 0x544D4150;
+    /**
+     * 形式のバージョン
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * タイルIDをそのまま並べる符号化方式
+     */
+    private static final byte ENCODING_RAW = 0;
+    /**
+     * ランレングスの符号化方式
+     */
+    private static final byte ENCODING_RLE = 1;
+
+    /**
+     * １つの連のバイト数
+     */
+    private static final int RUN_BYTES = Short.BYTES + Integer.BYTES;
+
+    /**
+     * ヘッダーのバイト数
+     */
+    private static final int HEADER_BYTES = Integer.BYTES + Short.BYTES * 2 + Integer.BYTES * 7;
+
+    /**
+     * 読み書きに使うバッファの大きさ
+     */
+    private static final int BUFFER_SIZE = 1 << 20;
+
+    /**
+     * インスタンス化しない
+     */
+    private TableMapIO() {}
+
+    /**
+     * タイルIDで画像を保持しているマップを保存する
+     *
+     * @param map 保存するマップ
+     * @param path 保存先
+     * @throws IOException 書き込みに失敗したとき
+     * @throws IllegalArgumentException マップの記憶領域が {@link TileIdLayerStorage} でないとき
+     */
+    public static void save(TableMap map, Path path) throws IOException {
+        LayerStorage storage = map.getStorage();
+        if (!(storage instanceof TileIdLayerStorage)) {
+            throw new IllegalArgumentException("パレットが必要: " + storage.getClass().getName());
+        }
+        save(map, ((TileIdLayerStorage) storage).getPalette(), path);
+    }
+
+    /**
+     * マップを保存する
+     *
+     * @param map 保存するマップ
+     * @param palette 画像をタイルIDに変換するパレット
+     * @param path 保存先
+     * @throws IOException 書き込みに失敗したとき
+     * @throws IllegalArgumentException パレットに登録されていない画像がマップにあるとき
+     */
+    public static void save(TableMap map, TilePalette palette, Path path) throws IOException {
+        LayerStorage storage = map.getStorage();
+        int layers = storage.getLayerCount();
+        int rows = storage.getRow();
+        int cols = storage.getCol();
+
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buf.putInt(MAGIC);
+            buf.putShort((short) VERSION);
+            buf.putShort((short) 0);
+            buf.putInt(layers);
+            buf.putInt(rows);
+            buf.putInt(cols);
+            buf.putInt(map.getUnitWidth());
+            buf.putInt(map.getUnitHeight());
+            buf.putInt(map.getStaticLayers());
+            buf.putInt(palette.getMaxId());
+
+            short[] scratch = null;
+            for (int i = 0; i < layers; i++) {
+                short[] ids = directLayer(storage, palette, i);
+                if (ids == null) {
+                    if (scratch == null) {
+                        scratch = new short[rows * cols];
+                    }
+                    ids = copyLayer(storage, palette, i, scratch);
+                }
+                writeLayer(channel, buf, ids);
+            }
+            flush(channel, buf);
+        }
+    }
+
+    /**
+     * {@code BitmapData} のタイルを参照するマップを読み込む
+     *
+     * タイルIDは {@link TilePalette#of(BitmapData)} の番号として解釈する
+     *
+     * @param path 読み込むファイル
+     * @param bitmapData タイルの画像
+     * @return 読み込んだマップ
+     * @throws IOException 読み込みに失敗したとき, または形式が正しくないとき
+     */
+    public static TableMap load(Path path, BitmapData bitmapData) throws IOException {
+        return load(path, TilePalette.of(bitmapData));
+    }
+
+    /**
+     * マップを読み込む
+     *
+     * タイルIDは {@link ArrayTileIdLayerStorage} の配列に直接読み込む
+     *
+     * @param path 読み込むファイル
+     * @param palette タイルIDを画像に変換するパレット
+     * @return 読み込んだマップ
+     * @throws IOException 読み込みに失敗したとき, または形式が正しくないとき
+     */
+    public static TableMap load(Path path, TilePalette palette) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buf.limit(0);
+
+            fill(channel, buf, HEADER_BYTES);
+            if (buf.getInt() != MAGIC) {
+                throw new IOException("マップのファイルではない: " + path);
+            }
+            int version = buf.getShort() & 0xFFFF;
+            if (version != VERSION) {
+                throw new IOException("未対応のバージョン: " + version);
+            }
+            buf.getShort();
+            int layers = buf.getInt();
+            int rows = buf.getInt();
+            int cols = buf.getInt();
+            int unitWidth = buf.getInt();
+            int unitHeight = buf.getInt();
+            int staticLayers = buf.getInt();
+            int maxId = buf.getInt();
+            if (layers <= 0 || rows <= 0 || cols <= 0 || (long) rows * cols > Integer.MAX_VALUE) {
+                throw new IOException("大きさが不正: " + layers + "x" + rows + "x" + cols);
+            }
+            if (palette.getMaxId() < maxId) {
+                throw new IOException("パレットのタイルが足りない: " + maxId);
+            }
+
+            ArrayTileIdLayerStorage storage = new ArrayTileIdLayerStorage(layers, rows, cols, palette);
+            for (int i = 0; i < layers; i++) {
+                readLayer(channel, buf, storage.getLayer(i));
+            }
+
+            TableMap map = new TableMap(storage, unitWidth, unitHeight);
+            map.setStaticLayers(Math.min(staticLayers, layers));
+            return map;
+        }
+    }
+
+    /**
+     * レイヤーのタイルIDの配列をコピーせずに取得する
+     *
+     * @param storage 記憶領域
+     * @param palette パレット
+     * @param layer レイヤー
+     * @return タイルIDの配列, 直接取得できないときは {@code null}
+     */
+    private static short[] directLayer(LayerStorage storage, TilePalette palette, int layer) {
+        if (storage instanceof ArrayTileIdLayerStorage
+                && ((ArrayTileIdLayerStorage) storage).getPalette() == palette) {
+            return ((ArrayTileIdLayerStorage) storage).getLayer(layer);
+        }
+        return null;
+    }
+
+    /**
+     * レイヤーのタイルIDを配列にコピーする
+     *
+     * @param storage 記憶領域
+     * @param palette パレット
+     * @param layer レイヤー
+     * @param ids コピー先の配列
+     * @return {@code ids}
+     */
+    private static short[] copyLayer(LayerStorage storage, TilePalette palette, int layer, short[] ids) {
+        int rows = storage.getRow();
+        int cols = storage.getCol();
+        boolean isSamePalette = storage instanceof TileIdLayerStorage
+                && ((TileIdLayerStorage) storage).getPalette() == palette;
+        for (int y = 0; y < rows; y++) {
+            for (int x = 0; x < cols; x++) {
+                int id;
+                if (isSamePalette) {
+                    id = ((TileIdLayerStorage) storage).getTileId(layer, x, y);
+                } else {
+                    Image img = storage.get(layer, x, y);
+                    if (img != null && !palette.contains(img)) {
+                        throw new IllegalArgumentException("パレットにない画像: (" + layer + ", " + x + ", " + y + ")");
+                    }
+                    id = palette.idOf(img);
+                }
+                if (id > ArrayTileIdLayerStorage.MAX_ID) {
+                    throw new IllegalArgumentException("タイルIDが範囲外: " + id);
+                }
+                ids[y * cols + x] = (short) id;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * １つのレイヤーを書き込む
+     *
+     * @param channel 書き込み先
+     * @param buf バッファ
+     * @param ids タイルIDの配列
+     * @throws IOException 書き込みに失敗したとき
+     */
+    private static void writeLayer(FileChannel channel, ByteBuffer buf, short[] ids) throws IOException {
+        int runs = countRuns(ids);
+        if ((long) runs * RUN_BYTES >= (long) ids.length * Short.BYTES) {
+            reserve(channel, buf, 1);
+            buf.put(ENCODING_RAW);
+            for (int i = 0; i < ids.length; ) {
+                reserve(channel, buf, Short.BYTES);
+                int n = Math.min(ids.length - i, buf.remaining() / Short.BYTES);
+                buf.asShortBuffer().put(ids, i, n);
+                buf.position(buf.position() + n * Short.BYTES);
+                i += n;
+            }
+        } else {
+            reserve(channel, buf, 1 + Integer.BYTES);
+            buf.put(ENCODING_RLE);
+            buf.putInt(runs);
+            int start = 0;
+            for (int i = 1; i <= ids.length; i++) {
+                if (i == ids.length || ids[i] != ids[start]) {
+                    reserve(channel, buf, RUN_BYTES);
+                    buf.putShort(ids[start]);
+                    buf.putInt(i - start);
+                    start = i;
+                }
+            }
+        }
+    }
+
+    /**
+     * １つのレイヤーを読み込む
+     *
+     * @param channel 読み込み元
+     * @param buf バッファ
+     * @param ids 読み込み先のタイルIDの配列
+     * @throws IOException 読み込みに失敗したとき, または形式が正しくないとき
+     */
+    private static void readLayer(FileChannel channel, ByteBuffer buf, short[] ids) throws IOException {
+        fill(channel, buf, 1);
+        byte encoding = buf.get();
+        if (encoding == ENCODING_RAW) {
+            for (int i = 0; i < ids.length; ) {
+                fill(channel, buf, Short.BYTES);
+                int n = Math.min(ids.length - i, buf.remaining() / Short.BYTES);
+                buf.asShortBuffer().get(ids, i, n);
+                buf.position(buf.position() + n * Short.BYTES);
+                i += n;
+            }
+        } else if (encoding == ENCODING_RLE) {
+            fill(channel, buf, Integer.BYTES);
+            int runs = buf.getInt();
+            int pos = 0;
+            for (int r = 0; r < runs; r++) {
+                fill(channel, buf, RUN_BYTES);
+                short id = buf.getShort();
+                int length = buf.getInt();
+                if (length <= 0 || length > ids.length - pos) {
+                    throw new IOException("連の長さが不正: " + length);
+                }
+                Arrays.fill(ids, pos, pos + length, id);
+                pos += length;
+            }
+            if (pos != ids.length) {
+                throw new IOException("タイルの数が不正: " + pos);
+            }
+        } else {
+            throw new IOException("未対応の符号化方式: " + encoding);
+        }
+    }
+
+    /**
+     * 同じタイルIDが続く連の数を数える
+     *
+     * @param ids タイルIDの配列
+     * @return 連の数
+     */
+    private static int countRuns(short[] ids) {
+        int runs = ids.length == 0 ? 0 : 1;
+        for (int i = 1; i < ids.length; i++) {
+            if (ids[i] != ids[i - 1]) {
+                runs++;
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * バッファに指定されたバイト数を書き込める空きを作る
+     *
+     * @param channel 書き込み先
+     * @param buf バッファ
+     * @param bytes 必要なバイト数
+     * @throws IOException 書き込みに失敗したとき
+     */
+    private static void reserve(FileChannel channel, ByteBuffer buf, int bytes) throws IOException {
+        if (buf.remaining() < bytes) {
+            flush(channel, buf);
+        }
+    }
+
+    /**
+     * バッファの内容をすべて書き込む
+     *
+     * @param channel 書き込み先
+     * @param buf バッファ
+     * @throws IOException 書き込みに失敗したとき
+     */
+    private static void flush(FileChannel channel, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+        buf.clear();
+    }
+
+    /**
+     * バッファに指定されたバイト数以上が読み込まれている状態にする
+     *
+     * @param channel 読み込み元
+     * @param buf バッファ
+     * @param bytes 必要なバイト数
+     * @throws IOException 読み込みに失敗したとき, またはファイルが途中で終わったとき
+     */
+    private static void fill(FileChannel channel, ByteBuffer buf, int bytes) throws IOException {
+        if (buf.remaining() >= bytes) {
+            return;
+        }
+        buf.compact();
+        while (buf.position() < bytes) {
+            if (channel.read(buf) < 0) {
+                throw new EOFException();
+            }
+        }
+        buf.flip();
+    }
+}
@@ -0,0 +1,78 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+
+/**
+ * タイルごとに画像の代わりにタイルIDを保持する記憶領域
+ *
+ * 画像の読み書きは {@link TilePalette} を通してタイルIDに変換する
+ */
+public abstract class TileIdLayerStorage implements LayerStorage {
+    /**
+     * タイルIDと画像の対応表
+     */
+    private final TilePalette palette;
+
+    /**
+     * コンストラクタ
+     *
+     * @param palette タイルIDと画像の対応表
+     */
+    protected TileIdLayerStorage(TilePalette palette) {
+        this.palette = palette;
+    }
+
+    /**
+     * タイルIDと画像の対応表を取得
+     *
+     * @return タイルIDと画像の対応表
+     */
+    public TilePalette getPalette() {
+        return palette;
+    }
+
+    /**
+     * 指定されたタイルのタイルIDを取得する
+     *
+     * @param layer レイヤー
+     * @param x x座標
+     * @param y y座標
+     * @return タイルID
+     */
+    public abstract int getTileId(int layer, int x, int y);
+
+    /**
+     * 指定されたタイルにタイルIDをセットする
+     *
+     * @param layer レイヤー
+     * @param x x座標
+     * @param y y座標
+     * @param id タイルID
+     * @throws IllegalArgumentException タイルIDが範囲外のとき
+     */
+    public abstract void setTileId(int layer, int x, int y, int id);
+
+    /**
+     * 指定されたレイヤーのすべてのタイルを指定されたタイルIDで埋める
+     *
+     * @param layer レイヤー
+     * @param id タイルID
+     * @throws IllegalArgumentException タイルIDが範囲外のとき
+     */
+    public abstract void fillTileId(int layer, int id);
+
+    @Override
+    public Image get(int layer, int x, int y) {
+        return palette.get(getTileId(layer, x, y));
+    }
+
+    @Override
+    public void set(int layer, int x, int y, Image img) {
+        setTileId(layer, x, y, palette.idOf(img));
+    }
+
+    @Override
+    public void fill(int layer, Image img) {
+        fillTileId(layer, palette.idOf(img));
+    }
+}
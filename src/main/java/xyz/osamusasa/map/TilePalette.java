@@ -0,0 +1,192 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * タイルIDと画像の対応表
+ *
+ * タイルID {@code 0} は画像がないことを表す.
+ * 画像はインスタンスごとに区別され, 同じインスタンスには常に同じIDが割り当てられる.
+ * {@link #of(BitmapData)} で作成したパレットは, タイルを初めて参照したときに {@code BitmapData} から切り出すので,
+ * マップで使わないタイルは読み込まない.
+ */
+public class TilePalette {
+    /**
+     * 画像がないことを表すタイルID
+     */
+    public static final int EMPTY = 0;
+
+    /**
+     * タイルIDから画像への対応
+     */
+    private Image[] images;
+    /**
+     * 画像からタイルIDへの対応
+     */
+    private final Map<Image, Integer> ids;
+    /**
+     * 次に割り当てるタイルID
+     */
+    private int next;
+
+    /**
+     * タイルID {@code 1} から順にタイルを切り出す {@code BitmapData}, ないときは {@code null}
+     */
+    private final BitmapData sheet;
+    /**
+     * {@code sheet} のタイルの数
+     */
+    private final int sheetTiles;
+    /**
+     * {@code sheet} から切り出したタイル, 位置は {@code タイルID - 1}
+     */
+    private final AtomicReferenceArray<Image> sheetImages;
+
+    /**
+     * コンストラクタ
+     */
+    public TilePalette() {
+        this(null);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param sheet タイルID {@code 1} から順にタイルを切り出す {@code BitmapData}, ないときは {@code null}
+     */
+    private TilePalette(BitmapData sheet) {
+        this.images = new Image[16];
+        this.ids = new IdentityHashMap<>();
+        this.sheet = sheet;
+        this.sheetTiles = sheet == null ? 0 : sheet.getColumns() * sheet.getRows();
+        this.sheetImages = new AtomicReferenceArray<>(sheetTiles);
+        this.next = sheetTiles + 1;
+    }
+
+    /**
+     * {@code BitmapData} のすべてのタイルを登録したパレットを作成する
+     *
+     * タイル {@code (x, y)} のIDは {@code y * 列数 + x + 1} になる.
+     * タイルは初めて参照されたときに切り出し, 以降はパレットが保持する
+     *
+     * @param bitmapData 登録する {@code BitmapData} オブジェクト
+     * @return 作成したパレット
+     */
+    public static TilePalette of(BitmapData bitmapData) {
+        return new TilePalette(bitmapData);
+    }
+
+    /**
+     * タイルIDに対応する画像を取得する
+     *
+     * @param id タイルID
+     * @return 対応する画像, 登録されていないときは {@code null}
+     */
+    public Image get(int id) {
+        Image img = id < images.length ? images[id] : null;
+        if (img == null && id > EMPTY && id <= sheetTiles) {
+            img = sheetImages.get(id - 1);
+            if (img == null) {
+                int index = id - 1;
+                sheetImages.compareAndSet(index, null, sheet.getTile(index % sheet.getColumns(), index / sheet.getColumns()));
+                img = sheetImages.get(index);
+            }
+        }
+        return img;
+    }
+
+    /**
+     * 画像に対応するタイルIDを取得する
+     *
+     * 登録されていない画像は新しいIDで登録する
+     *
+     * @param img 画像
+     * @return タイルID, {@code img} が {@code null} のときは {@link #EMPTY}
+     */
+    public int idOf(Image img) {
+        if (img == null) {
+            return EMPTY;
+        }
+        Integer id = ids.get(img);
+        if (id != null) {
+            return id;
+        }
+        int sheetId = sheetIdOf(img);
+        if (sheetId != EMPTY) {
+            return sheetId;
+        }
+        while (next < images.length && images[next] != null) {
+            next++;
+        }
+        put(next, img);
+        return next++;
+    }
+
+    /**
+     * 画像が登録されているかを判定
+     *
+     * @param img 画像
+     * @return 登録されていれば {@code true}
+     */
+    public boolean contains(Image img) {
+        return ids.containsKey(img) || sheetIdOf(img) != EMPTY;
+    }
+
+    /**
+     * {@code BitmapData} から切り出したタイルのタイルIDを取得する
+     *
+     * @param img 画像
+     * @return タイルID, {@code BitmapData} のタイルでないか, 別の画像で置き換えられているときは {@link #EMPTY}
+     */
+    private int sheetIdOf(Image img) {
+        if (sheet == null) {
+            return EMPTY;
+        }
+        int index = sheet.indexOf(img);
+        if (index < 0 || (index + 1 < images.length && images[index + 1] != null)) {
+            return EMPTY;
+        }
+        sheetImages.compareAndSet(index, null, img);
+        return index + 1;
+    }
+
+    /**
+     * 指定したタイルIDに画像を登録する
+     *
+     * @param id タイルID
+     * @param img 登録する画像
+     */
+    public void put(int id, Image img) {
+        if (id <= EMPTY) {
+            throw new IllegalArgumentException("id: " + id);
+        }
+        if (id >= images.length) {
+            images = Arrays.copyOf(images, Math.max(id + 1, images.length * 2));
+        }
+        if (images[id] != null) {
+            ids.remove(images[id]);
+        }
+        images[id] = img;
+        if (img != null) {
+            ids.put(img, id);
+        }
+    }
+
+    /**
+     * 登録されている最大のタイルIDを取得する
+     *
+     * @return 最大のタイルID, 何も登録されていないときは {@link #EMPTY}
+     */
+    public int getMaxId() {
+        for (int id = images.length - 1; id > sheetTiles; id--) {
+            if (images[id] != null) {
+                return id;
+            }
+        }
+        return sheetTiles;
+    }
+}
@@ -2,6 +2,7 @@ package xyz.osamusasa.map;
 
 import java.awt.*;
 import java.awt.event.*;
+import java.util.Arrays;
 
 public abstract class TiledMap {
     /**
@@ -40,6 +41,26 @@ public abstract class TiledMap {
      */
     private double magnification;
 
+    /**
+     * 描画の統計を受け取るリスナー
+     *
+     * 描画のたびに読むので, 変更するときは配列ごと置き換える
+     */
+    private volatile RenderListener[] renderListeners;
+    /**
+     * 描画中の統計, 記録していないときは {@code null}
+     */
+    private RenderStats recordingStats;
+    /**
+     * 使い回す統計
+     */
+    private final RenderStats renderStats;
+
+    /**
+     * マップの一部が変わり再描画が必要になったときに呼ぶ処理
+     */
+    private volatile Runnable repaintHandler;
+
     /**
      * コンストラクタ
      */
@@ -51,6 +72,9 @@ public abstract class TiledMap {
 
         this.isClicked = false;
         this.magnification = 1.0;
+
+        this.renderListeners = new RenderListener[0];
+        this.renderStats = new RenderStats();
     }
 
     /**
@@ -71,6 +95,120 @@ public abstract class TiledMap {
      */
     abstract void draw(Graphics g);
 
+    /**
+     * ビューから１フレームを描画するときに呼ばれる
+     *
+     * リスナーがないときは {@link #draw(Graphics)} を呼ぶだけで,
+     * あるときは描画の統計を集めて描画の後にリスナーに渡す
+     *
+     * @param g グラフィックオブジェクト
+     */
+    final void drawFrame(Graphics g) {
+        RenderListener[] listeners = renderListeners;
+        if (listeners.length == 0) {
+            draw(g);
+            return;
+        }
+
+        RenderStats stats = renderStats;
+        stats.reset();
+        recordingStats = stats;
+        long allocated = RenderStats.currentThreadAllocatedBytes();
+        long start = System.nanoTime();
+        try {
+            draw(g);
+        } finally {
+            stats.setDrawNanos(System.nanoTime() - start);
+            stats.setBytesAllocated(allocated < 0 ? -1 : RenderStats.currentThreadAllocatedBytes() - allocated);
+            recordingStats = null;
+        }
+        for (RenderListener listener: listeners) {
+            listener.frameRendered(this, stats);
+        }
+    }
+
+    /**
+     * 描画中の統計を取得
+     *
+     * @return 描画中の統計, 記録していないときは {@code null}
+     */
+    RenderStats getRecordingStats() {
+        return recordingStats;
+    }
+
+    /**
+     * 描画の統計を受け取るリスナーを追加する
+     *
+     * @param listener リスナー
+     */
+    public synchronized void addRenderListener(RenderListener listener) {
+        RenderListener[] listeners = Arrays.copyOf(renderListeners, renderListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        renderListeners = listeners;
+    }
+
+    /**
+     * 描画の統計を受け取るリスナーを取り除く
+     *
+     * @param listener リスナー
+     */
+    public synchronized void removeRenderListener(RenderListener listener) {
+        RenderListener[] listeners = renderListeners;
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == listener) {
+                RenderListener[] removed = new RenderListener[listeners.length - 1];
+                System.arraycopy(listeners, 0, removed, 0, i);
+                System.arraycopy(listeners, i + 1, removed, i, listeners.length - i - 1);
+                renderListeners = removed;
+                return;
+            }
+        }
+    }
+
+    /**
+     * 指定された位置と拡大倍率でマップを描画する
+     *
+     * 表示位置と拡大倍率を変更せずに描画するので, 複数のスレッドから同時に呼び出せる.
+     * 既定では {@link #draw(Graphics)} を座標変換して描画する.
+     *
+     * @param g グラフィックオブジェクト
+     * @param originX マップの左上のX座標
+     * @param originY マップの左上のY座標
+     * @param magnification 拡大倍率
+     */
+    void render(Graphics g, int originX, int originY, double magnification) {
+        Graphics2D g2 = (Graphics2D) g.create();
+        try {
+            double scale = magnification / this.magnification;
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g2.translate(originX, originY);
+            g2.scale(scale, scale);
+            g2.translate(-posX, -posY);
+            draw(g2);
+        } finally {
+            g2.dispose();
+        }
+    }
+
+    /**
+     * 能動的に描画するビューから一定間隔で呼ばれる
+     *
+     * アニメーションなど時間で変化する状態を更新する
+     */
+    protected void update() {}
+
+    /**
+     * 時間で変化する状態を持つかを判定
+     *
+     * 持つ間はビューが一定間隔で {@link #update()} を呼ぶ.
+     * 持たない状態から持つ状態になったときは {@link #requestRepaint()} を呼ぶ
+     *
+     * @return 時間で変化する状態を持つときは {@code true}
+     */
+    protected boolean isAnimated() {
+        return false;
+    }
+
     /**
      * 表示する枠を描画
      * @param g グラフィックオブジェクト
@@ -106,6 +244,43 @@ public abstract class TiledMap {
                 (h < y_ || h > y));
     }
 
+    /**
+     * 拡大倍率が１のときの幅を取得
+     *
+     * @return 幅
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * 拡大倍率が１のときの高さを取得
+     *
+     * @return 高さ
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * 拡大倍率を取得
+     *
+     * @return 拡大倍率
+     */
+    double getMagnification() {
+        return magnification;
+    }
+
+    /**
+     * 拡大倍率をセット
+     *
+     * @param magnification 拡大倍率
+     */
+    void setMagnification(double magnification) {
+        this.magnification = magnification;
+        magnificationChanged();
+    }
+
     /**
      * 描画されるときの幅を取得
      * @return 描画されるときの幅
@@ -122,6 +297,39 @@ public abstract class TiledMap {
         return (int)(height * magnification);
     }
 
+    /**
+     * 再描画が必要になったときに呼ぶ処理をセット
+     *
+     * 処理は任意のスレッドから呼ばれる
+     *
+     * @param handler 再描画を予約する処理, {@code null} のときは何もしない
+     */
+    void setRepaintHandler(Runnable handler) {
+        this.repaintHandler = handler;
+    }
+
+    /**
+     * ビューに再描画を要求する
+     *
+     * 再描画する領域は {@link #takeDirtyRegion()} で取得される.
+     * 任意のスレッドから呼び出せる.
+     */
+    protected void requestRepaint() {
+        Runnable handler = repaintHandler;
+        if (handler != null) {
+            handler.run();
+        }
+    }
+
+    /**
+     * 前回呼ばれてから変更された領域を取得する
+     *
+     * @return 再描画が必要なウィンドウ内の領域, 全体の再描画が必要なときは {@code null}
+     */
+    Rectangle takeDirtyRegion() {
+        return null;
+    }
+
     /**
      * マウスリスナーを取得
      * @return {@code MouseListener} オブジェクト
@@ -259,7 +467,12 @@ public abstract class TiledMap {
      */
     protected void mouseWheelMoved(int rotation) {
         magnification *= ( 1 - rotation * 0.1);
+        magnificationChanged();
     }
+    /**
+     * 拡大倍率が変更されたときに呼ばれる
+     */
+    protected void magnificationChanged() {}
     /**
      * キーがタイプされたときに呼ばれる
      * @param code キーコード
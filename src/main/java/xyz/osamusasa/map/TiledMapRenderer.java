@@ -0,0 +1,158 @@
+package xyz.osamusasa.map;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 画面を使わずに {@code TiledMap} を画像に描画する
+ *
+ * {@code java.awt.headless=true} の環境でも使える.
+ * 大きな画像は横長の帯に分割し, 帯ごとに別の {@code Graphics2D} で並列に描画する.
+ * 描画中にマップを変更してはならない.
+ */
+public final class TiledMapRenderer {
+    /**
+     * １つの帯の高さ
+     */
+    private static final int BAND_HEIGHT = 256;
+
+    /**
+     * インスタンス化しない
+     */
+    private TiledMapRenderer() {}
+
+    /**
+     * マップ全体を指定された倍率で画像に描画する
+     *
+     * @param map 描画するマップ
+     * @param scale 倍率
+     * @return 描画した画像
+     */
+    public static BufferedImage render(TiledMap map, double scale) {
+        return render(map, new Rectangle(0, 0, map.getWidth(), map.getHeight()), scale);
+    }
+
+    /**
+     * マップの指定された範囲を指定された倍率で画像に描画する
+     *
+     * @param map 描画するマップ
+     * @param region 描画する範囲, 倍率が１のときのマップの左上を原点とする
+     * @param scale 倍率
+     * @return 描画した画像
+     */
+    public static BufferedImage render(TiledMap map, Rectangle region, double scale) {
+        return render(map, region, scale, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * マップの指定された範囲を指定された倍率で画像に描画する
+     *
+     * @param map 描画するマップ
+     * @param region 描画する範囲, 倍率が１のときのマップの左上を原点とする
+     * @param scale 倍率
+     * @param pool 帯を並列に描画するスレッドプール
+     * @return 描画した画像
+     */
+    public static BufferedImage render(TiledMap map, Rectangle region, double scale, ForkJoinPool pool) {
+        if (scale <= 0) {
+            throw new IllegalArgumentException("scale: " + scale);
+        }
+        int width = (int) Math.ceil(region.width * scale);
+        int height = (int) Math.ceil(region.height * scale);
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("region: " + region);
+        }
+
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        int originX = (int) -Math.round(region.x * scale);
+        int originY = (int) -Math.round(region.y * scale);
+
+        if (height <= BAND_HEIGHT) {
+            new Band(map, out, 0, height, originX, originY, scale).compute();
+        } else {
+            List<Band> bands = new ArrayList<>();
+            for (int y = 0; y < height; y += BAND_HEIGHT) {
+                bands.add(new Band(map, out, y, Math.min(BAND_HEIGHT, height - y), originX, originY, scale));
+            }
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    invokeAll(bands);
+                }
+            });
+        }
+        return out;
+    }
+
+    /**
+     * 画像の１つの帯を描画する処理
+     */
+    private static final class Band extends RecursiveAction {
+        /**
+         * 描画するマップ
+         */
+        private final TiledMap map;
+        /**
+         * 描画先の画像
+         */
+        private final BufferedImage out;
+        /**
+         * 帯の上端のY座標
+         */
+        private final int y;
+        /**
+         * 帯の高さ
+         */
+        private final int height;
+        /**
+         * 描画先の画像でのマップの左上のX座標
+         */
+        private final int originX;
+        /**
+         * 描画先の画像でのマップの左上のY座標
+         */
+        private final int originY;
+        /**
+         * 倍率
+         */
+        private final double scale;
+
+        /**
+         * コンストラクタ
+         *
+         * @param map 描画するマップ
+         * @param out 描画先の画像
+         * @param y 帯の上端のY座標
+         * @param height 帯の高さ
+         * @param originX 描画先の画像でのマップの左上のX座標
+         * @param originY 描画先の画像でのマップの左上のY座標
+         * @param scale 倍率
+         */
+        private Band(TiledMap map, BufferedImage out, int y, int height, int originX, int originY, double scale) {
+            this.map = map;
+            this.out = out;
+            this.y = y;
+            this.height = height;
+            this.originX = originX;
+            this.originY = originY;
+            this.scale = scale;
+        }
+
+        @Override
+        protected void compute() {
+            //帯ごとに同じラスタを共有する別の画像に描画する
+            BufferedImage band = out.getSubimage(0, y, out.getWidth(), height);
+            Graphics2D g = band.createGraphics();
+            try {
+                g.setClip(0, 0, band.getWidth(), band.getHeight());
+                map.render(g, originX, originY - y, scale);
+            } finally {
+                g.dispose();
+            }
+        }
+    }
+}
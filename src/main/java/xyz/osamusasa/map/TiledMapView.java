@@ -10,6 +10,18 @@ public class TiledMapView extends JComponent {
      */
     private TiledMap map;
 
+    /**
+     * アニメーションを進める間隔 (ミリ秒)
+     */
+    private static final int FRAME_INTERVAL = 1000 / 60;
+
+    /**
+     * 一定間隔でマップの状態を更新し, 変更された領域を再描画するタイマー
+     *
+     * マップが時間で変化する状態を持つ間だけ動かす
+     */
+    private final Timer frameTimer;
+
     /**
      * コンストラクタ
      * @param map 描画するマップオブジェクト
@@ -20,6 +32,45 @@ public class TiledMapView extends JComponent {
         setMouseMotionListener(map);
         setMouseWheelListener(map);
         setKeyListener(map);
+        map.setRepaintHandler(() -> SwingUtilities.invokeLater(() -> {
+            updateFrameTimer();
+            repaintDirty();
+        }));
+        frameTimer = new Timer(FRAME_INTERVAL, e -> {
+            if (!map.isAnimated()) {
+                ((Timer) e.getSource()).stop();
+                return;
+            }
+            map.update();
+            repaintDirty();
+        });
+    }
+
+    /**
+     * 表示されたときにタイマーを開始する
+     */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        updateFrameTimer();
+    }
+
+    /**
+     * 表示されていて, マップが時間で変化する状態を持つときにタイマーを開始する
+     */
+    private void updateFrameTimer() {
+        if (isDisplayable() && map.isAnimated() && !frameTimer.isRunning()) {
+            frameTimer.start();
+        }
+    }
+
+    /**
+     * 表示されなくなったときにタイマーを停止する
+     */
+    @Override
+    public void removeNotify() {
+        frameTimer.stop();
+        super.removeNotify();
     }
 
     /**
@@ -51,10 +102,24 @@ public class TiledMapView extends JComponent {
     public void paint(Graphics g) {
         super.paint(g);
 
-        map.draw(g);
+        map.drawFrame(g);
         requestFocusInWindow();
     }
 
+    /**
+     * マップの変更された領域だけを再描画する
+     *
+     * 変更された領域が分からないときは全体を再描画する
+     */
+    private void repaintDirty() {
+        Rectangle region = map.takeDirtyRegion();
+        if (region == null) {
+            repaint();
+        } else if (!region.isEmpty()) {
+            repaint(region);
+        }
+    }
+
     /**
      * マウスリスナーをセット
      * @param map 対象の {@code TiledMap} オブジェクト
@@ -65,14 +130,14 @@ public class TiledMapView extends JComponent {
             public void mouseClicked(MouseEvent e) {
                 if (map.contains(e.getX(), e.getY())) {
                     ml.mouseClicked(e);
-                    repaint();
+                    repaintDirty();
                 }
             }
 
             public void mousePressed(MouseEvent e) {
                 if (map.contains(e.getX(), e.getY())) {
                     ml.mousePressed(e);
-                    repaint();
+                    repaintDirty();
                 }
             }
 
@@ -105,7 +170,7 @@ public class TiledMapView extends JComponent {
         addMouseMotionListener(new MouseMotionListener() {
             public void mouseDragged(MouseEvent e) {
                 mml.mouseDragged(e);
-                repaint();
+                repaintDirty();
             }
 
             public void mouseMoved(MouseEvent e) {
@@ -124,7 +189,7 @@ public class TiledMapView extends JComponent {
             public void mouseWheelMoved(MouseWheelEvent e) {
                 if (map.contains(e.getX(), e.getY())) {
                     mwl.mouseWheelMoved(e);
-                    repaint();
+                    repaintDirty();
                 }
             }
         });
@@ -143,7 +208,7 @@ public class TiledMapView extends JComponent {
 
             public void keyPressed(KeyEvent e) {
                 kl.keyPressed(e);
-                repaint();
+                repaintDirty();
             }
 
             public void keyReleased(KeyEvent e) {
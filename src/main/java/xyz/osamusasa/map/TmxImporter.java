@@ -0,0 +1,688 @@
+package xyz.osamusasa.map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Tiled のマップ (TMX, CSV) を {@code TableMap} に読み込む
+ *
+ * TMXはStAXで先頭から順に読み, DOMを作らない.
+ * レイヤーのデータはタイルIDの配列に直接書き込み, 読み終わった部分の文書は保持しない.
+ * base64で符号化, 圧縮されたレイヤーは文書の続きを読んでいる間に別のスレッドで展開する.
+ *
+ * TMXのグローバルタイルIDはそのままパレットのタイルIDとして使う.
+ * 反転と回転のフラグは無視する.
+ * 対応するのは直交座標の有限のマップで, タイルセットは１枚の画像を等間隔に区切ったものに限る.
+ */
+public final class TmxImporter {
+    /**
+     * グローバルタイルIDから反転と回転のフラグを取り除くマスク
+     */
+    private static final long GID_MASK = 0x0FFFFFFFL;
+
+    /**
+     * 展開するときに一度に読むバイト数
+     */
+    private static final int DECODE_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * インスタンス化しない
+     */
+    private TmxImporter() {}
+
+    /**
+     * TMXファイルを読み込む
+     *
+     * 圧縮されたレイヤーは共通のスレッドプールで展開する
+     *
+     * @param path TMXファイル
+     * @return 読み込んだマップ
+     * @throws IOException 読み込みに失敗したとき, または対応していない形式のとき
+     */
+    public static TableMap importTmx(Path path) throws IOException {
+        return importTmx(path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * TMXファイルを読み込む
+     *
+     * @param path TMXファイル
+     * @param executor base64のレイヤーを展開するスレッド
+     * @return 読み込んだマップ
+     * @throws IOException 読み込みに失敗したとき, または対応していない形式のとき
+     */
+    public static TableMap importTmx(Path path, Executor executor) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return new TmxReader(path.toAbsolutePath().getParent(), executor).read(in);
+        }
+    }
+
+    /**
+     * レイヤーごとのCSVファイルを読み込む
+     *
+     * Tiled が書き出すCSVと同じく, 値はタイルセット内のタイルの番号で {@code -1} は画像がないことを表す.
+     * タイルIDは {@link TilePalette#of(BitmapData)} の番号になる.
+     *
+     * @param layers 下のレイヤーから順に並べたCSVファイル
+     * @param bitmapData タイルの画像
+     * @param unitWidth 単位当たりの幅
+     * @param unitHeight 単位当たりの高さ
+     * @return 読み込んだマップ
+     * @throws IOException 読み込みに失敗したとき, またはレイヤーの大きさが揃っていないとき
+     */
+    public static TableMap importCsv(List<Path> layers, BitmapData bitmapData, int unitWidth, int unitHeight) throws IOException {
+        if (layers.isEmpty()) {
+            throw new IllegalArgumentException("レイヤーがない");
+        }
+        short[][] tileIds = new short[layers.size()][];
+        int row = -1;
+        int col = -1;
+        for (int i = 0; i < layers.size(); i++) {
+            try (BufferedReader reader = Files.newBufferedReader(layers.get(i), StandardCharsets.UTF_8)) {
+                CsvLayer layer = CsvLayer.read(reader);
+                if (i == 0) {
+                    row = layer.row;
+                    col = layer.col;
+                } else if (layer.row != row || layer.col != col) {
+                    throw new IOException("レイヤーの大きさが違う: " + layers.get(i));
+                }
+                tileIds[i] = layer.ids;
+            }
+        }
+        TilePalette palette = TilePalette.of(bitmapData);
+        return new TableMap(new ArrayTileIdLayerStorage(tileIds, row, col, palette), unitWidth, unitHeight);
+    }
+
+    /**
+     * グローバルタイルIDをパレットのタイルIDに変換する
+     *
+     * @param gid グローバルタイルID
+     * @return パレットのタイルID
+     * @throws IOException 使用できる範囲を超えているとき
+     */
+    private static short toTileId(long gid) throws IOException {
+        long id = gid & GID_MASK;
+        if (id > ArrayTileIdLayerStorage.MAX_ID) {
+            throw new IOException("タイルIDが範囲外: " + id);
+        }
+        return (short) id;
+    }
+
+    /**
+     * TMXファイルを読み込む処理
+     */
+    private static final class TmxReader {
+        /**
+         * TMXファイルのあるディレクトリ
+         */
+        private final Path baseDir;
+        /**
+         * 展開するスレッド
+         */
+        private final Executor executor;
+
+        /**
+         * タイルIDと画像の対応表
+         */
+        private final TilePalette palette;
+        /**
+         * 下から順に並べたレイヤーのタイルIDの配列
+         */
+        private final List<short[]> layers;
+        /**
+         * 展開中のレイヤー
+         */
+        private final List<CompletableFuture<Void>> pending;
+
+        /**
+         * 列数
+         */
+        private int col;
+        /**
+         * 行数
+         */
+        private int row;
+        /**
+         * タイルの幅
+         */
+        private int tileWidth;
+        /**
+         * タイルの高さ
+         */
+        private int tileHeight;
+
+        /**
+         * コンストラクタ
+         *
+         * @param baseDir TMXファイルのあるディレクトリ
+         * @param executor 展開するスレッド
+         */
+        private TmxReader(Path baseDir, Executor executor) {
+            this.baseDir = baseDir;
+            this.executor = executor;
+            this.palette = new TilePalette();
+            this.layers = new ArrayList<>();
+            this.pending = new ArrayList<>();
+        }
+
+        /**
+         * 文書を読み込む
+         *
+         * @param in 入力
+         * @return 読み込んだマップ
+         * @throws IOException 読み込みに失敗したとき, または対応していない形式のとき
+         */
+        private TableMap read(InputStream in) throws IOException {
+            XMLStreamReader r = null;
+            try {
+                r = createReader(in);
+                while (r.hasNext()) {
+                    if (r.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    switch (r.getLocalName()) {
+                        case "map":
+                            readMap(r);
+                            break;
+                        case "tileset":
+                            readTileset(r, baseDir, intAttribute(r, "firstgid", 1));
+                            break;
+                        case "layer":
+                            readLayer(r);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            } finally {
+                close(r);
+            }
+
+            try {
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof UncheckedIOException) {
+                    throw ((UncheckedIOException) e.getCause()).getCause();
+                }
+                throw e;
+            }
+            if (layers.isEmpty()) {
+                throw new IOException("レイヤーがない");
+            }
+            short[][] tileIds = layers.toArray(new short[0][]);
+            return new TableMap(new ArrayTileIdLayerStorage(tileIds, row, col, palette), tileWidth, tileHeight);
+        }
+
+        /**
+         * {@code map} 要素の属性を読む
+         *
+         * @param r 読み込み中の文書
+         * @throws IOException 対応していない形式のとき
+         */
+        private void readMap(XMLStreamReader r) throws IOException {
+            String orientation = r.getAttributeValue(null, "orientation");
+            if (orientation != null && !orientation.equals("orthogonal")) {
+                throw new IOException("未対応の向き: " + orientation);
+            }
+            if (intAttribute(r, "infinite", 0) != 0) {
+                throw new IOException("無限のマップには未対応");
+            }
+            col = intAttribute(r, "width", 0);
+            row = intAttribute(r, "height", 0);
+            tileWidth = intAttribute(r, "tilewidth", 0);
+            tileHeight = intAttribute(r, "tileheight", 0);
+            if (col <= 0 || row <= 0 || tileWidth <= 0 || tileHeight <= 0) {
+                throw new IOException("マップの大きさが不正");
+            }
+        }
+
+        /**
+         * {@code tileset} 要素を読み, タイルをパレットに登録する
+         *
+         * 外部のタイルセットファイル (TSX) を参照しているときはそのファイルを読む
+         *
+         * @param r 読み込み中の文書, {@code tileset} の開始タグの位置
+         * @param dir 画像のパスの基準のディレクトリ
+         * @param firstGid 最初のタイルのグローバルタイルID
+         * @throws IOException 読み込みに失敗したとき, または対応していない形式のとき
+         * @throws XMLStreamException 文書が正しくないとき
+         */
+        private void readTileset(XMLStreamReader r, Path dir, int firstGid) throws IOException, XMLStreamException {
+            String source = r.getAttributeValue(null, "source");
+            if (source != null) {
+                Path tsx = dir.resolve(source);
+                XMLStreamReader t = null;
+                try (InputStream in = Files.newInputStream(tsx)) {
+                    t = createReader(in);
+                    while (t.hasNext()) {
+                        if (t.next() == XMLStreamConstants.START_ELEMENT && t.getLocalName().equals("tileset")) {
+                            readTileset(t, tsx.toAbsolutePath().getParent(), firstGid);
+                            return;
+                        }
+                    }
+                    throw new IOException("タイルセットがない: " + tsx);
+                } finally {
+                    close(t);
+                }
+            }
+
+            int width = intAttribute(r, "tilewidth", 0);
+            int height = intAttribute(r, "tileheight", 0);
+            if (intAttribute(r, "spacing", 0) != 0 || intAttribute(r, "margin", 0) != 0) {
+                throw new IOException("タイルの間隔と余白には未対応");
+            }
+            String image = null;
+            Color transparent = null;
+            int depth = 0;
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 1 && r.getLocalName().equals("image")) {
+                        image = r.getAttributeValue(null, "source");
+                        String trans = r.getAttributeValue(null, "trans");
+                        if (trans != null) {
+                            transparent = new Color(Integer.parseInt(trans.startsWith("#") ? trans.substring(1) : trans, 16));
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth-- == 0) {
+                        break;
+                    }
+                }
+            }
+            if (image == null) {
+                throw new IOException("画像を１枚にまとめていないタイルセットには未対応");
+            }
+
+            BitmapData bitmapData = new BitmapData(dir.resolve(image).toString(), width, height, transparent, false);
+            int cols = bitmapData.getColumns();
+            int count = cols * bitmapData.getRows();
+            for (int i = 0; i < count; i++) {
+                palette.put(toTileId(firstGid + i), bitmapData.getTile(i % cols, i / cols));
+            }
+        }
+
+        /**
+         * {@code layer} 要素を読む
+         *
+         * @param r 読み込み中の文書, {@code layer} の開始タグの位置
+         * @throws IOException 対応していない形式のとき
+         * @throws XMLStreamException 文書が正しくないとき
+         */
+        private void readLayer(XMLStreamReader r) throws IOException, XMLStreamException {
+            if (intAttribute(r, "width", col) != col || intAttribute(r, "height", row) != row) {
+                throw new IOException("マップと大きさが違うレイヤーには未対応");
+            }
+            short[] ids = new short[row * col];
+            layers.add(ids);
+            int depth = 0;
+            while (r.hasNext()) {
+                int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 0 && r.getLocalName().equals("data")) {
+                        readData(r, ids);
+                    } else {
+                        depth++;
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth-- == 0) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * {@code data} 要素を読み, タイルIDの配列に書き込む
+         *
+         * base64のデータは別のスレッドで展開する
+         *
+         * @param r 読み込み中の文書, {@code data} の開始タグの位置
+         * @param ids 書き込むタイルIDの配列
+         * @throws IOException 対応していない形式のとき
+         * @throws XMLStreamException 文書が正しくないとき
+         */
+        private void readData(XMLStreamReader r, short[] ids) throws IOException, XMLStreamException {
+            String encoding = r.getAttributeValue(null, "encoding");
+            String compression = r.getAttributeValue(null, "compression");
+            if (compression != null && !compression.equals("zlib") && !compression.equals("gzip")) {
+                throw new IOException("未対応の圧縮形式: " + compression);
+            }
+
+            if (encoding == null) {
+                //タイルごとの要素
+                int pos = 0;
+                while (r.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                    if (r.getLocalName().equals("chunk")) {
+                        throw new IOException("チャンクには未対応");
+                    }
+                    if (pos >= ids.length) {
+                        throw new IOException("タイルが多すぎる");
+                    }
+                    String gid = r.getAttributeValue(null, "gid");
+                    ids[pos++] = gid == null ? TilePalette.EMPTY : toTileId(Long.parseLong(gid));
+                    r.nextTag();
+                }
+                checkCount(pos, ids);
+            } else if (encoding.equals("csv")) {
+                CsvDecoder csv = new CsvDecoder(ids);
+                while (r.next() != XMLStreamConstants.END_ELEMENT) {
+                    if (r.isStartElement()) {
+                        throw new IOException("チャンクには未対応");
+                    }
+                    if (r.hasText()) {
+                        csv.accept(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                    }
+                }
+                checkCount(csv.finish(), ids);
+            } else if (encoding.equals("base64")) {
+                StringBuilder text = new StringBuilder();
+                while (r.next() != XMLStreamConstants.END_ELEMENT) {
+                    if (r.isStartElement()) {
+                        throw new IOException("チャンクには未対応");
+                    }
+                    if (r.hasText()) {
+                        text.append(r.getTextCharacters(), r.getTextStart(), r.getTextLength());
+                    }
+                }
+                pending.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        decodeBase64(text, compression, ids);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, executor));
+            } else {
+                throw new IOException("未対応の符号化方式: " + encoding);
+            }
+        }
+
+        /**
+         * base64で符号化されたデータを展開してタイルIDの配列に書き込む
+         *
+         * @param text base64の文字列
+         * @param compression 圧縮形式, 圧縮していないときは {@code null}
+         * @param ids 書き込むタイルIDの配列
+         * @throws IOException 展開に失敗したとき
+         */
+        private static void decodeBase64(CharSequence text, String compression, short[] ids) throws IOException {
+            byte[] bytes = Base64.getMimeDecoder().decode(text.toString());
+            InputStream in = new ByteArrayInputStream(bytes);
+            if ("zlib".equals(compression)) {
+                in = new InflaterInputStream(in);
+            } else if ("gzip".equals(compression)) {
+                in = new GZIPInputStream(in);
+            }
+            try (DataInputStream data = new DataInputStream(in)) {
+                byte[] buf = new byte[DECODE_BUFFER_SIZE];
+                ByteBuffer gids = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+                for (int pos = 0; pos < ids.length; ) {
+                    int n = Math.min(ids.length - pos, buf.length / Integer.BYTES);
+                    data.readFully(buf, 0, n * Integer.BYTES);
+                    for (int i = 0; i < n; i++) {
+                        ids[pos++] = toTileId(gids.getInt(i * Integer.BYTES) & 0xFFFFFFFFL);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * カンマ区切りの数値を少しずつ受け取ってタイルIDの配列に書き込む
+     */
+    private static final class CsvDecoder {
+        /**
+         * 書き込むタイルIDの配列
+         */
+        private final short[] ids;
+        /**
+         * 次に書き込む位置
+         */
+        private int pos;
+        /**
+         * 読み込み中の数値
+         */
+        private long value;
+        /**
+         * 数値を読み込み中であるか
+         */
+        private boolean inNumber;
+
+        /**
+         * コンストラクタ
+         *
+         * @param ids 書き込むタイルIDの配列
+         */
+        private CsvDecoder(short[] ids) {
+            this.ids = ids;
+        }
+
+        /**
+         * 文字を受け取る
+         *
+         * @param chars 文字の配列
+         * @param start 開始位置
+         * @param length 文字数
+         * @throws IOException 数値以外の文字があるとき, またはタイルが多すぎるとき
+         */
+        private void accept(char[] chars, int start, int length) throws IOException {
+            for (int i = start; i < start + length; i++) {
+                char c = chars[i];
+                if (c >= '0' && c <= '9') {
+                    value = value * 10 + (c - '0');
+                    inNumber = true;
+                } else if (c == ',' || Character.isWhitespace(c)) {
+                    emit();
+                } else {
+                    throw new IOException("数値ではない文字: " + c);
+                }
+            }
+        }
+
+        /**
+         * 最後の数値を書き込む
+         *
+         * @return 書き込んだタイルの数
+         * @throws IOException タイルが多すぎるとき
+         */
+        private int finish() throws IOException {
+            emit();
+            return pos;
+        }
+
+        /**
+         * 読み込み中の数値を書き込む
+         *
+         * @throws IOException タイルが多すぎるとき
+         */
+        private void emit() throws IOException {
+            if (!inNumber) {
+                return;
+            }
+            if (pos >= ids.length) {
+                throw new IOException("タイルが多すぎる");
+            }
+            ids[pos++] = toTileId(value);
+            value = 0;
+            inNumber = false;
+        }
+    }
+
+    /**
+     * CSVファイルから読み込んだ１つのレイヤー
+     */
+    private static final class CsvLayer {
+        /**
+         * 行ごとに並べたタイルIDの配列
+         */
+        private final short[] ids;
+        /**
+         * 行数
+         */
+        private final int row;
+        /**
+         * 列数
+         */
+        private final int col;
+
+        /**
+         * コンストラクタ
+         *
+         * @param ids 行ごとに並べたタイルIDの配列
+         * @param row 行数
+         * @param col 列数
+         */
+        private CsvLayer(short[] ids, int row, int col) {
+            this.ids = ids;
+            this.row = row;
+            this.col = col;
+        }
+
+        /**
+         * CSVを１行ずつ読み込む
+         *
+         * @param reader 入力
+         * @return 読み込んだレイヤー
+         * @throws IOException 読み込みに失敗したとき, または行の長さが揃っていないとき
+         */
+        private static CsvLayer read(Reader reader) throws IOException {
+            BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+            short[] ids = new short[1024];
+            int size = 0;
+            int row = 0;
+            int col = -1;
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                int count = 0;
+                int start = 0;
+                while (start <= line.length()) {
+                    int end = line.indexOf(',', start);
+                    if (end < 0) {
+                        end = line.length();
+                    }
+                    String cell = line.substring(start, end).trim();
+                    start = end + 1;
+                    if (cell.isEmpty() && end == line.length()) {
+                        break;
+                    }
+                    int index;
+                    try {
+                        index = Integer.parseInt(cell);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("数値ではない値: " + cell, e);
+                    }
+                    if (size == ids.length) {
+                        ids = Arrays.copyOf(ids, ids.length * 2);
+                    }
+                    ids[size++] = index < 0 ? (short) TilePalette.EMPTY : toTileId(index + 1L);
+                    count++;
+                }
+                if (col < 0) {
+                    col = count;
+                } else if (count != col) {
+                    throw new IOException((row + 1) + "行目の長さが違う: " + count);
+                }
+                row++;
+            }
+            if (row == 0) {
+                throw new IOException("タイルがない");
+            }
+            return new CsvLayer(size == ids.length ? ids : Arrays.copyOf(ids, size), row, col);
+        }
+    }
+
+    /**
+     * 読み込んだタイルの数がレイヤーの大きさと一致するかを検査する
+     *
+     * @param count 読み込んだタイルの数
+     * @param ids タイルIDの配列
+     * @throws IOException 一致しないとき
+     */
+    private static void checkCount(int count, short[] ids) throws IOException {
+        if (count != ids.length) {
+            throw new IOException("タイルの数が違う: " + count + " / " + ids.length);
+        }
+    }
+
+    /**
+     * 属性を整数として取得
+     *
+     * @param r 読み込み中の文書
+     * @param name 属性の名前
+     * @param defaultValue 属性がないときの値
+     * @return 属性の値
+     * @throws IOException 整数でないとき
+     */
+    private static int intAttribute(XMLStreamReader r, String name, int defaultValue) throws IOException {
+        String value = r.getAttributeValue(null, name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException(name + "が整数ではない: " + value, e);
+        }
+    }
+
+    /**
+     * 外部のエンティティを読まないStAXのリーダーを作成する
+     *
+     * @param in 入力
+     * @return リーダー
+     * @throws XMLStreamException 作成できないとき
+     */
+    private static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory.createXMLStreamReader(in);
+    }
+
+    /**
+     * StAXのリーダーを閉じる
+     *
+     * @param r リーダー, {@code null} のときは何もしない
+     * @throws IOException 閉じられないとき
+     */
+    private static void close(XMLStreamReader r) throws IOException {
+        if (r != null) {
+            try {
+                r.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(e);
+            }
+        }
+    }
+}
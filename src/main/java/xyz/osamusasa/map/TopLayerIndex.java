@@ -0,0 +1,153 @@
+package xyz.osamusasa.map;
+
+import java.util.Arrays;
+
+/**
+ * タイルごとの画像のある一番上のレイヤーの索引
+ *
+ * レイヤーが１２７枚以下のときは {@code byte}, それより多いときは {@code short} の配列で保持する.
+ * 画像のないタイルは {@link #NONE} になる.
+ * ヒープに置けないほど大きなマップでは索引を持たず, 参照されるたびにレイヤーを上から調べる.
+ */
+final class TopLayerIndex {
+    /**
+     * 画像がないことを表す値
+     */
+    static final int NONE = -1;
+
+    /**
+     * 列数
+     */
+    private final int col;
+
+    /**
+     * レイヤーが少ないときの索引
+     */
+    private final byte[] bytes;
+    /**
+     * レイヤーが多いときの索引
+     */
+    private final short[] shorts;
+
+    /**
+     * 索引を持たないときに調べる記憶領域, 索引を持つときは {@code null}
+     */
+    private final TileIdLayerStorage scanned;
+
+    /**
+     * コンストラクタ
+     *
+     * @param layer レイヤーの数
+     * @param row 行数
+     * @param col 列数
+     */
+    TopLayerIndex(int layer, int row, int col) {
+        if (layer > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("layer: " + layer);
+        }
+        this.col = col;
+        this.scanned = null;
+        if (layer <= Byte.MAX_VALUE) {
+            this.bytes = new byte[row * col];
+            this.shorts = null;
+        } else {
+            this.bytes = null;
+            this.shorts = new short[row * col];
+        }
+        fill(NONE);
+    }
+
+    /**
+     * 索引を持たず, 記憶領域を調べるコンストラクタ
+     *
+     * @param storage 調べる記憶領域
+     */
+    TopLayerIndex(TileIdLayerStorage storage) {
+        this.col = storage.getCol();
+        this.bytes = null;
+        this.shorts = null;
+        this.scanned = storage;
+    }
+
+    /**
+     * 索引を配列に保持しているかを判定
+     *
+     * @return 保持していれば {@code true}, 参照のたびに調べるときは {@code false}
+     */
+    boolean isStored() {
+        return scanned == null;
+    }
+
+    /**
+     * 指定されたタイルの画像のある一番上のレイヤーを取得
+     *
+     * @param x x座標
+     * @param y y座標
+     * @return レイヤー, 画像がないときは {@link #NONE}
+     */
+    int get(int x, int y) {
+        int i = y * col + x;
+        if (bytes != null) {
+            return bytes[i];
+        } else if (shorts != null) {
+            return shorts[i];
+        }
+        int layer = scanned.getLayerCount() - 1;
+        while (layer >= 0 && scanned.getTileId(layer, x, y) == TilePalette.EMPTY) {
+            layer--;
+        }
+        return layer;
+    }
+
+    /**
+     * 指定されたタイルの画像のある一番上のレイヤーをセット
+     *
+     * @param x x座標
+     * @param y y座標
+     * @param layer レイヤー, 画像がないときは {@link #NONE}
+     */
+    void set(int x, int y, int layer) {
+        int i = y * col + x;
+        if (bytes != null) {
+            bytes[i] = (byte) layer;
+        } else if (shorts != null) {
+            shorts[i] = (short) layer;
+        }
+    }
+
+    /**
+     * タイルIDの配列で画像のあるタイルの一番上のレイヤーを指定されたレイヤーにする
+     *
+     * 下のレイヤーから順に呼ぶと索引が完成する
+     *
+     * @param ids 行ごとに並んだタイルIDの配列
+     * @param layer レイヤー
+     */
+    void raise(short[] ids, int layer) {
+        if (!isStored()) {
+            return;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] != TilePalette.EMPTY) {
+                if (bytes != null) {
+                    bytes[i] = (byte) layer;
+                } else {
+                    shorts[i] = (short) layer;
+                }
+            }
+        }
+    }
+
+    /**
+     * すべてのタイルの画像のある一番上のレイヤーをセット
+     *
+     * @param layer レイヤー, 画像がないときは {@link #NONE}
+     */
+    void fill(int layer) {
+        if (bytes != null) {
+            Arrays.fill(bytes, (byte) layer);
+        } else if (shorts != null) {
+            Arrays.fill(shorts, (short) layer);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package xyz.osamusasa.map;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedTileIdLayerStorageTest {
+    /**
+     * 区間の境界をまたぐ大きさのマップを埋めても例外にならず, すべてのタイルが埋まる
+     *
+     * 区間を小さくして, 小さなマップでも多くの区間の境界をまたぐようにする
+     */
+    @Test
+    public void fillAcrossSegmentBoundary() throws Exception {
+        int size = 300;
+        int segmentShift = MappedTileIdLayerStorage.MIN_SEGMENT_SHIFT + 1;
+        BufferedImage img = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        TilePalette palette = new TilePalette();
+        palette.put(1, img);
+
+        Path file = Files.createTempFile("tmmp", ".bin");
+        try (MappedTileIdLayerStorage storage = MappedTileIdLayerStorage.create(file, 2, size, size, palette, segmentShift)) {
+            assertTrue(Files.size(file) > 4L << segmentShift);
+
+            TableMap map = new TableMap(storage, 1, 1);
+            map.fill(img, 1);
+
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    assertEquals(TilePalette.EMPTY, storage.getTileId(0, x, y));
+                    assertEquals(1, storage.getTileId(1, x, y));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package xyz.osamusasa.map;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TableMapTest {
+    /**
+     * タイルと異なる大きさの {@code Entity} を描画しても, ２回目の描画では画像を縮尺し直さない
+     */
+    @Test
+    public void drawEntityKeepsTileCache() {
+        TableMap map = new TableMap(1, 2, 2, 16, 16);
+        map.addImage(new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB), 0, 0, 0);
+        map.getEntities().add(new Entity(new BufferedImage(16, 32, BufferedImage.TYPE_INT_ARGB), 16, 0, 16, 32));
+
+        BufferedImage canvas = new BufferedImage(map.getDrawableWidth(), map.getDrawableHeight(), BufferedImage.TYPE_INT_ARGB);
+        Graphics g = canvas.getGraphics();
+        try {
+            map.draw(g);
+            long scaled = map.getScaleCount();
+            assertTrue(scaled > 0);
+            map.draw(g);
+            assertEquals(scaled, map.getScaleCount());
+        } finally {
+            g.dispose();
+        }
+    }
+}